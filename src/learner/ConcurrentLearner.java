@@ -0,0 +1,178 @@
+package learner;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import learner.features.Feature;
+import learner.utils.Pair;
+
+/**
+ * Learner which serves queries while it learns.
+ * 
+ * Experiences are learned by a private learner under a lock.  Queries are
+ * answered by an immutable snapshot of it, which is published with a volatile
+ * write after learning, so queries take no lock, always see a consistent set
+ * of experiences and never wait on learning.  Snapshots share experiences,
+ * indices and tables with the learner rather than copying them.
+ * 
+ * By default a snapshot is published after every learn, so queries see every
+ * experience learned before them.  Publishing costs time in the number of
+ * distinct nominal values and contingency tables, not in the experiences or
+ * the tables' contents, since tables shared with snapshots are only copied
+ * when learned experiences are counted into them in batches.  Publishing
+ * less often lowers the cost of learning further, at the expense of queries
+ * lagging behind the latest experiences.
+ * 
+ * @author woodser
+ */
+public class ConcurrentLearner {
+  
+  private Learner learner;            // learner of new experiences, guarded by itself
+  private volatile Learner snapshot;  // snapshot of the learner which answers queries
+  private int publishInterval;        // number of experiences learned between snapshots
+  private int unpublished;            // number of experiences learned since the last snapshot
+  
+  /**
+   * Constructs a learner with no experiences.
+   */
+  public ConcurrentLearner() {
+    this(new Learner());
+  }
+  
+  /**
+   * Constructs a learner which learns with the given learner.
+   * 
+   * @param learner is the learner to learn with, which must not be used directly afterwards
+   */
+  public ConcurrentLearner(Learner learner) {
+    this.learner = learner;
+    this.publishInterval = 1;
+    this.snapshot = learner.snapshot();
+  }
+  
+  /**
+   * Gets the number of experiences learned between publishing snapshots.
+   * 
+   * @return int is the number of experiences learned between snapshots
+   */
+  public int getPublishInterval() {
+    synchronized (learner) {
+      return publishInterval;
+    }
+  }
+  
+  /**
+   * Sets the number of experiences learned between publishing snapshots.
+   * 
+   * @param publishInterval is the number of experiences learned between snapshots, 1 to publish after every learn
+   */
+  public void setPublishInterval(int publishInterval) {
+    if (publishInterval < 1) throw new RuntimeException("Publish interval must be at least 1: " + publishInterval);
+    synchronized (learner) {
+      this.publishInterval = publishInterval;
+    }
+  }
+  
+  /**
+   * Adds an experience to learn from.
+   * 
+   * @param experience is the experience to learn from
+   */
+  public void learn(Experience experience) {
+    synchronized (learner) {
+      learner.learn(experience);
+      learned(1);
+    }
+  }
+  
+  /**
+   * Adds an experience to learn from.
+   * 
+   * @param features are the features of the experience
+   * @param outcome is the outcome of the experience
+   */
+  public void learn(List<Feature> features, Object outcome) {
+    synchronized (learner) {
+      learner.learn(features, outcome);
+      learned(1);
+    }
+  }
+  
+  /**
+   * Adds experiences to learn from.
+   * 
+   * @param experiences are the experiences to learn from
+   */
+  public void learnAll(Collection<Experience> experiences) {
+    synchronized (learner) {
+      int size = learner.getStore().size();
+      try {
+        learner.learnAll(experiences);
+      } finally {
+        learned(learner.getStore().size() - size);
+      }
+    }
+  }
+  
+  /**
+   * Optimizes the learner for classification and publishes a snapshot of it.
+   */
+  public void optimize() {
+    synchronized (learner) {
+      learner.optimize();
+      publish();
+    }
+  }
+  
+  /**
+   * Publishes a snapshot of every experience learned so far to queries.
+   */
+  public void publish() {
+    synchronized (learner) {
+      snapshot = learner.snapshot();
+      unpublished = 0;
+    }
+  }
+  
+  /**
+   * Gets the snapshot answering queries, which may be used to answer several
+   * queries against the same experiences.
+   * 
+   * @return Learner is the latest published snapshot, which later learning does not change
+   */
+  public Learner getSnapshot() {
+    return snapshot;
+  }
+  
+  /**
+   * Gets the outcome distribution for the given features based on the latest published experience.
+   * 
+   * @param features are the features to get an outcome distribution for
+   * @return Map<Object, Double> is the outcome distribution for the features based on experience
+   */
+  public Map<Object, Double> getDistribution(List<Feature> features) {
+    return snapshot.getDistribution(features);
+  }
+  
+  /**
+   * Gets the most probable outcome classification for the given features based on the latest published experience.
+   * 
+   * @param features are the features to get an outcome classification for
+   * @param minConfidence is the minimum confidence the distribution must have to return a classification
+   * @return Pair<Object, Double> is the outcome and its confidence if the confidence exceeds the threshold
+   */
+  public Pair<Object, Double> getClassification(List<Feature> features, double minConfidence) {
+    return snapshot.getClassification(features, minConfidence);
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  /**
+   * Publishes a snapshot if enough experiences were learned since the last.
+   */
+  private void learned(int numExperiences) {
+    unpublished += numExperiences;
+    if (unpublished >= publishInterval) publish();
+  }
+}
@@ -27,7 +27,18 @@ public class ContinuousFeature implements Feature {
 	@Override
 	public double compare(Feature feature) {
 		if (!(feature instanceof ContinuousFeature)) throw new RuntimeException("Cannot compare different features: " + feature.getClass());
-		double diffPercent = Math.max(0, Math.abs(val) - Math.abs(val - ((ContinuousFeature) feature).getVal())) / val;
+		return compare(val, ((ContinuousFeature) feature).getVal());
+	}
+	
+	/**
+	 * Compares two continuous values.
+	 * 
+	 * @param val is the value to compare from
+	 * @param other is the value to compare to
+	 * @return double is the similarity of the other value to the value
+	 */
+	public static double compare(double val, double other) {
+		double diffPercent = Math.max(0, Math.abs(val) - Math.abs(val - other)) / val;
 		return diffPercent * diffPercent;
 	}
 }
@@ -0,0 +1,23 @@
+package learner.features;
+
+/**
+ * Enumerates the feature types a learner can store.
+ * 
+ * @author woodser
+ */
+public enum FeatureType {
+  CONTINUOUS,
+  NOMINAL;
+  
+  /**
+   * Gets the type of the given feature.
+   * 
+   * @param feature is the feature to get the type of
+   * @return FeatureType is the type of the feature
+   */
+  public static FeatureType of(Feature feature) {
+    if (feature instanceof ContinuousFeature) return CONTINUOUS;
+    if (feature instanceof NominalFeature) return NOMINAL;
+    throw new RuntimeException("Unsupported feature: " + feature.getClass());
+  }
+}
@@ -0,0 +1,390 @@
+package learner.scoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import learner.features.FeatureType;
+import learner.store.ContinuousColumn;
+import learner.store.ExperienceStore;
+import learner.store.NominalColumn;
+
+/**
+ * Selects the feature combinations most informative of the outcome.
+ * 
+ * A combination's informativeness is the mutual information between its joint
+ * value and the outcome over a sample of stored experiences, less the
+ * Miller-Madow bias of the estimate.  The bias grows with the number of joint
+ * values, so larger combinations are only kept when they explain the outcome
+ * better than chance.  Continuous features are binned at quantiles of the
+ * sample, with NaN in a bin of its own.  Weighted rows count as their number
+ * of experiences.
+ * 
+ * Combinations are grown by beam search: each size extends the most
+ * informative combinations of the previous size by one feature, so the number
+ * of candidates is polynomial in the number of features.
+ * 
+ * @author woodser
+ */
+public class CombinationSelector {
+  
+  private static final int NUM_BINS = 8;           // number of quantile bins of continuous features
+  private static final int MAX_SAMPLE_ROWS = 4096; // maximum number of experiences to estimate informativeness from
+  private static final int MAX_DIRECT_KEYS = 1 << 20; // maximum number of joint values to assign ids without hashing
+  
+  /**
+   * Selects the most informative combinations of the store's features.
+   * 
+   * @param store is the store of experiences to measure informativeness over
+   * @param maxCombinations is the maximum number of combinations to select
+   * @return Combinations are the most informative combinations grouped by size
+   */
+  public static Combinations select(ExperienceStore store, int maxCombinations) {
+    if (store.isEmpty()) throw new RuntimeException("Learner must have experience");
+    return select(store, maxCombinations, store.getFeatureSize());
+  }
+  
+  /**
+   * Selects the most informative combinations of the store's features with at most the given size.
+   * 
+   * @param store is the store of experiences to measure informativeness over
+   * @param maxCombinations is the maximum number of combinations to select
+   * @param maxSize is the maximum number of features in a combination
+   * @return Combinations are the most informative combinations grouped by size
+   */
+  public static Combinations select(ExperienceStore store, int maxCombinations, int maxSize) {
+    if (store.isEmpty()) throw new RuntimeException("Learner must have experience");
+    if (maxCombinations < 1) throw new RuntimeException("Must select at least one combination: " + maxCombinations);
+    int featureSize = store.getFeatureSize();
+    if (featureSize > 63) throw new RuntimeException("Cannot select combinations of " + featureSize + " features");
+    if (maxSize < 1) throw new RuntimeException("Combinations must have at least one feature: " + maxSize);
+    
+    // discretize a sample of experiences
+    int numRows = Math.min(store.size(), MAX_SAMPLE_ROWS);
+    int[] weights = new int[numRows];
+    for (int i = 0; i < numRows; i++) weights[i] = store.isWeighted() ? store.getWeights().get(getRow(i, numRows, store.size())) : 1;
+    int[][] codes = new int[featureSize][];
+    int[] cardinalities = new int[featureSize];
+    for (int col = 0; col < featureSize; col++) {
+      codes[col] = new int[numRows];
+      if (store.getType(col) == FeatureType.CONTINUOUS) cardinalities[col] = bin(store.getContinuous(col), store.size(), weights, codes[col]);
+      else cardinalities[col] = densify(store.getNominal(col), store.size(), codes[col]);
+    }
+    int[] outcomes = new int[numRows];
+    int numOutcomes = densify(store.getOutcomes(), store.size(), outcomes);
+    
+    // grow combinations from the most informative of the previous size
+    Scorer scorer = new Scorer(outcomes, weights, numOutcomes);
+    List<Candidate> selected = new ArrayList<Candidate>();
+    List<Candidate> beam = new ArrayList<Candidate>();
+    List<Candidate> parents = Collections.emptyList();
+    for (int col = 0; col < featureSize; col++) beam.add(scorer.score(1L << col, codes[col], cardinalities[col]));
+    for (int size = 1; !beam.isEmpty(); size++) {
+      
+      // keep candidates which rank among the most informative so far
+      Collections.sort(beam, BY_INFORMATIVENESS);
+      if (selected.size() >= maxCombinations) {
+        Collections.sort(selected, BY_INFORMATIVENESS);
+        selected = new ArrayList<Candidate>(selected.subList(0, maxCombinations));
+        int end = 0;
+        while (end < beam.size() && BY_INFORMATIVENESS.compare(beam.get(end), selected.get(maxCombinations - 1)) < 0) end++;
+        beam = beam.subList(0, end);
+      }
+      if (beam.size() > maxCombinations) beam = beam.subList(0, maxCombinations);
+      selected.addAll(beam);
+      if (size == Math.min(featureSize, maxSize)) break;
+      
+      // extend the beam, keeping joint values only while they are extended
+      for (Candidate candidate : beam) scorer.materialize(candidate, codes, cardinalities);
+      for (Candidate parent : parents) parent.ids = null;
+      parents = beam;
+      Set<Long> seen = new HashSet<Long>();
+      List<Candidate> next = new ArrayList<Candidate>();
+      for (Candidate parent : beam) {
+        for (int col = 0; col < featureSize; col++) {
+          long mask = parent.mask | 1L << col;
+          if (mask == parent.mask || !seen.add(mask)) continue;
+          next.add(scorer.extend(mask, parent, col, codes[col], cardinalities[col]));
+        }
+      }
+      beam = next;
+    }
+    
+    // keep the most informative combinations grouped by size
+    Collections.sort(selected, BY_INFORMATIVENESS);
+    if (selected.size() > maxCombinations) selected = selected.subList(0, maxCombinations);
+    Collections.sort(selected, BY_SIZE);
+    long[] masks = new long[selected.size()];
+    for (int i = 0; i < masks.length; i++) masks[i] = selected.get(i).mask;
+    return new Combinations(featureSize, masks);
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private static final Comparator<Candidate> BY_INFORMATIVENESS = new Comparator<Candidate>() {
+    @Override
+    public int compare(Candidate c1, Candidate c2) {
+      int cmp = Double.compare(c2.informativeness, c1.informativeness);
+      return cmp != 0 ? cmp : BY_SIZE.compare(c1, c2);
+    }
+  };
+  
+  private static final Comparator<Candidate> BY_SIZE = new Comparator<Candidate>() {
+    @Override
+    public int compare(Candidate c1, Candidate c2) {
+      int cmp = Integer.compare(Long.bitCount(c1.mask), Long.bitCount(c2.mask));
+      return cmp != 0 ? cmp : Long.compare(c1.mask, c2.mask);
+    }
+  };
+  
+  /**
+   * Gets the sampled row at the given sample position.
+   */
+  private static int getRow(int sample, int numSamples, int size) {
+    return (int) ((long) sample * size / numSamples);
+  }
+  
+  /**
+   * Bins sampled values of a continuous column at their quantiles, counting each sampled row by its weight.
+   * 
+   * @return int is the number of bins
+   */
+  private static int bin(ContinuousColumn column, int size, int[] weights, int[] codes) {
+    final double[] values = new double[codes.length];
+    Integer[] order = new Integer[codes.length];
+    int numValues = 0;
+    long totalWeight = 0;
+    for (int i = 0; i < codes.length; i++) {
+      values[i] = column.get(getRow(i, codes.length, size));
+      if (Double.isNaN(values[i])) continue;
+      order[numValues++] = i;
+      totalWeight += weights[i];
+    }
+    Arrays.sort(order, 0, numValues, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Double.compare(values[i1], values[i2]);
+      }
+    });
+    
+    // each edge is the sorted value at its share of the total weight
+    double[] edges = new double[NUM_BINS - 1];
+    int next = 0;
+    long cumulativeWeight = 0;
+    for (int i = 0; i < edges.length && numValues > 0; i++) {
+      long rank = totalWeight * (i + 1) / NUM_BINS;
+      while (cumulativeWeight + weights[order[next]] <= rank) cumulativeWeight += weights[order[next++]];
+      edges[i] = values[order[next]];
+    }
+    for (int i = 0; i < codes.length; i++) {
+      double value = values[i];
+      if (Double.isNaN(value)) {
+        codes[i] = NUM_BINS;
+        continue;
+      }
+      int bin = 0;
+      while (bin < edges.length && value >= edges[bin]) bin++;
+      codes[i] = bin;
+    }
+    return NUM_BINS + 1;
+  }
+  
+  /**
+   * Maps sampled codes of a nominal column to dense codes.
+   * 
+   * @return int is the number of dense codes
+   */
+  private static int densify(NominalColumn column, int size, int[] codes) {
+    IdTable ids = new IdTable(codes.length);
+    for (int i = 0; i < codes.length; i++) codes[i] = ids.getId(column.get(getRow(i, codes.length, size)));
+    return ids.size();
+  }
+  
+  /**
+   * Feature combination with its informativeness.
+   * 
+   * The joint values of sampled rows are only kept for combinations in the beam.
+   */
+  private static class Candidate {
+    private long mask;
+    private double informativeness;
+    private Candidate parent; // combination extended by one column, null for single columns
+    private int col;          // column the parent was extended by
+    private int[] ids;        // dense joint value of each sampled row, null if not materialized
+    private int numIds;       // number of joint values
+  }
+  
+  /**
+   * Measures the informativeness of combinations' joint values.
+   */
+  private static class Scorer {
+    
+    private int[] outcomes;
+    private int[] weights;   // number of experiences of each sampled row
+    private int numExperiences;
+    private int numOutcomes;
+    private double outcomeEntropy;
+    private IdTable table;
+    private int[] ids;
+    private int[] counts = new int[0];
+    private int[] valueCounts = new int[0];
+    private double[] plogp;  // p log p of the proportion of each count of sampled experiences up to the sample size
+    
+    Scorer(int[] outcomes, int[] weights, int numOutcomes) {
+      this.outcomes = outcomes;
+      this.weights = weights;
+      this.numOutcomes = numOutcomes;
+      this.table = new IdTable(outcomes.length);
+      this.ids = new int[outcomes.length];
+      for (int weight : weights) numExperiences += weight;
+      this.plogp = new double[Math.min(numExperiences, MAX_SAMPLE_ROWS) + 1];
+      for (int count = 1; count < plogp.length; count++) plogp[count] = getPlogp(count);
+      int[] outcomeCounts = new int[numOutcomes];
+      for (int i = 0; i < outcomes.length; i++) outcomeCounts[outcomes[i]] += weights[i];
+      for (int count : outcomeCounts) outcomeEntropy -= plogp(count);
+    }
+    
+    Candidate score(long mask, int[] ids, int numIds) {
+      Candidate candidate = new Candidate();
+      candidate.mask = mask;
+      candidate.ids = ids;
+      candidate.numIds = numIds;
+      candidate.informativeness = getInformativeness(ids, numIds);
+      return candidate;
+    }
+    
+    Candidate extend(long mask, Candidate parent, int col, int[] codes, int cardinality) {
+      Candidate candidate = new Candidate();
+      candidate.mask = mask;
+      candidate.parent = parent;
+      candidate.col = col;
+      candidate.numIds = join(parent, codes, cardinality, ids);
+      candidate.informativeness = getInformativeness(ids, candidate.numIds);
+      return candidate;
+    }
+    
+    /**
+     * Computes the joint values of a candidate from the joint values of its parent.
+     */
+    void materialize(Candidate candidate, int[][] codes, int[] cardinalities) {
+      if (candidate.ids != null) return;
+      candidate.ids = new int[codes[candidate.col].length];
+      join(candidate.parent, codes[candidate.col], cardinalities[candidate.col], candidate.ids);
+      candidate.parent = null;
+    }
+    
+    /**
+     * Assigns dense ids to the joint values of a parent's values and a column's codes.
+     * 
+     * @return int is the number of joint values
+     */
+    private int join(Candidate parent, int[] codes, int cardinality, int[] ids) {
+      int[] parentIds = parent.ids;
+      table.clear();
+      if ((long) parent.numIds * cardinality <= MAX_DIRECT_KEYS) {
+        for (int i = 0; i < codes.length; i++) ids[i] = table.getDirectId(parentIds[i] * cardinality + codes[i]);
+      } else {
+        for (int i = 0; i < codes.length; i++) ids[i] = table.getId((long) parentIds[i] * cardinality + codes[i]);
+      }
+      return table.size();
+    }
+    
+    /**
+     * Gets the mutual information of joint values and outcomes less its Miller-Madow bias, in nats.
+     */
+    private double getInformativeness(int[] ids, int numIds) {
+      if (counts.length < numIds * numOutcomes) counts = new int[numIds * numOutcomes];
+      if (valueCounts.length < numIds) valueCounts = new int[numIds];
+      Arrays.fill(counts, 0, numIds * numOutcomes, 0);
+      Arrays.fill(valueCounts, 0, numIds, 0);
+      for (int i = 0; i < ids.length; i++) {
+        counts[ids[i] * numOutcomes + outcomes[i]] += weights[i];
+        valueCounts[ids[i]] += weights[i];
+      }
+      double conditionalEntropy = 0;
+      int numValues = 0;
+      for (int id = 0; id < numIds; id++) {
+        if (valueCounts[id] == 0) continue;
+        numValues++;
+        for (int outcome = 0; outcome < numOutcomes; outcome++) conditionalEntropy -= plogp(counts[id * numOutcomes + outcome]);
+        conditionalEntropy += plogp(valueCounts[id]);
+      }
+      return outcomeEntropy - conditionalEntropy - (double) (numValues - 1) * (numOutcomes - 1) / (2.0 * numExperiences);
+    }
+    
+    /**
+     * Gets p log p of the proportion of a count of sampled experiences, looked up if the count is tabled.
+     */
+    private double plogp(int count) {
+      return count < plogp.length ? plogp[count] : getPlogp(count);
+    }
+    
+    private double getPlogp(int count) {
+      if (count == 0) return 0;
+      double p = (double) count / numExperiences;
+      return p * Math.log(p);
+    }
+  }
+  
+  /**
+   * Assigns dense ids to keys in order of first appearance.
+   */
+  private static class IdTable {
+    
+    private long[] keys;
+    private int[] ids;
+    private int[] generations;  // generation each slot was filled in, so clearing is constant time
+    private int[] directIds = new int[0];
+    private int[] directGenerations = new int[0];
+    private int generation = 1;
+    private int size;
+    
+    IdTable(int maxKeys) {
+      int capacity = Integer.highestOneBit(Math.max(2, maxKeys) * 2 - 1) * 2;
+      keys = new long[capacity];
+      ids = new int[capacity];
+      generations = new int[capacity];
+    }
+    
+    int getId(long key) {
+      int mask = keys.length - 1;
+      int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+      while (generations[slot] == generation) {
+        if (keys[slot] == key) return ids[slot];
+        slot = (slot + 1) & mask;
+      }
+      generations[slot] = generation;
+      keys[slot] = key;
+      ids[slot] = size;
+      return size++;
+    }
+    
+    /**
+     * Gets the id of a key less than MAX_DIRECT_KEYS without hashing.
+     */
+    int getDirectId(int key) {
+      if (key >= directIds.length) {
+        int capacity = Math.min(MAX_DIRECT_KEYS, Math.max(key + 1, directIds.length * 2));
+        directIds = Arrays.copyOf(directIds, capacity);
+        directGenerations = Arrays.copyOf(directGenerations, capacity);
+      }
+      if (directGenerations[key] == generation) return directIds[key];
+      directGenerations[key] = generation;
+      directIds[key] = size;
+      return size++;
+    }
+    
+    int size() {
+      return size;
+    }
+    
+    void clear() {
+      generation++;
+      size = 0;
+    }
+  }
+}
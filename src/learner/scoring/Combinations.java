@@ -0,0 +1,170 @@
+package learner.scoring;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Compact set of feature index combinations represented as bitmasks.
+ * 
+ * Bit i of a combination is set if feature i is part of it.  Combinations are
+ * grouped by size (number of features) and ascending within each size, and
+ * iterate as primitive longs.
+ * 
+ * @author woodser
+ */
+public class Combinations implements Iterable<Long> {
+  
+  private static final int MAX_COMBINATIONS = Integer.MAX_VALUE - 8;  // maximum array length
+
+  private int numInputs;
+  private long[] masks;   // combinations grouped by size
+  private int[] offsets;  // offsets[size] is the index of the first combination of the size
+  
+  /**
+   * Constructs combinations from bitmasks already grouped by size.
+   * 
+   * @param numInputs is the number of feature indices
+   * @param masks are the combination bitmasks grouped by ascending size
+   */
+  public Combinations(int numInputs, long[] masks) {
+    if (numInputs < 1 || numInputs > 63) throw new IllegalArgumentException("Number of inputs must be between 1 and 63: " + numInputs);
+    this.numInputs = numInputs;
+    this.masks = masks;
+    this.offsets = new int[numInputs + 2];
+    int idx = 0;
+    for (int size = 0; size <= numInputs + 1; size++) {
+      while (idx < masks.length && Long.bitCount(masks[idx]) < size) idx++;
+      offsets[size] = idx;
+    }
+    if (idx != masks.length) throw new IllegalArgumentException("Combinations must be grouped by size");
+  }
+  
+  /**
+   * Builds all nonempty combinations of the given number of indices.
+   * 
+   * @param numInputs is the number of indices
+   * @return Combinations are all 2^n - 1 nonempty combinations
+   */
+  public static Combinations all(int numInputs) {
+    if (numInputs < 1 || numInputs > 30) throw new IllegalArgumentException("Number of inputs must be between 1 and 30: " + numInputs);
+    return upToSize(numInputs, numInputs);
+  }
+  
+  /**
+   * Builds all nonempty combinations of the given number of indices with at most the given size.
+   * 
+   * @param numInputs is the number of indices
+   * @param maxSize is the maximum number of indices in a combination
+   * @return Combinations are all combinations of 1 to maxSize indices
+   */
+  public static Combinations upToSize(int numInputs, int maxSize) {
+    if (numInputs < 1 || numInputs > 63) throw new IllegalArgumentException("Number of inputs must be between 1 and 63: " + numInputs);
+    if (maxSize < 1 || maxSize > numInputs) throw new IllegalArgumentException("Maximum size must be between 1 and " + numInputs + ": " + maxSize);
+    long count = 0;
+    long sizeCount = 1;
+    for (int size = 1; size <= maxSize; size++) {
+      sizeCount = sizeCount * (numInputs - size + 1) / size;  // exact since sizeCount is C(n, size - 1)
+      count += sizeCount;
+      if (count > MAX_COMBINATIONS) throw new IllegalArgumentException("Too many combinations of up to " + maxSize + " of " + numInputs + " indices");
+    }
+    long[] masks = new long[(int) count];
+    int idx = 0;
+    for (int size = 1; size <= maxSize; size++) {
+      long last = ((1L << size) - 1) << (numInputs - size);
+      for (long mask = (1L << size) - 1; ; mask = nextMask(mask)) {
+        masks[idx++] = mask;
+        if (mask == last) break;
+      }
+    }
+    return new Combinations(numInputs, masks);
+  }
+  
+  /**
+   * Gets the number of indices the combinations are drawn from.
+   * 
+   * @return int is the number of indices
+   */
+  public int getNumInputs() {
+    return numInputs;
+  }
+  
+  /**
+   * Gets the number of combinations.
+   * 
+   * @return int is the number of combinations
+   */
+  public int size() {
+    return masks.length;
+  }
+  
+  /**
+   * Gets the combination at the given position.
+   * 
+   * @param idx is the position of the combination
+   * @return long is the combination bitmask
+   */
+  public long get(int idx) {
+    return masks[idx];
+  }
+  
+  /**
+   * Gets the position of the first combination with the given number of indices.
+   * 
+   * @param size is the number of indices in the combination
+   * @return int is the position of the first combination of the size
+   */
+  public int getStart(int size) {
+    return offsets[size];
+  }
+  
+  /**
+   * Gets the position after the last combination with the given number of indices.
+   * 
+   * @param size is the number of indices in the combination
+   * @return int is the position after the last combination of the size
+   */
+  public int getEnd(int size) {
+    return offsets[size + 1];
+  }
+  
+  /**
+   * Gets the largest combination size present.
+   * 
+   * @return int is the largest number of indices in a combination, 0 if empty
+   */
+  public int getMaxSize() {
+    return masks.length == 0 ? 0 : Long.bitCount(masks[masks.length - 1]);
+  }
+
+  @Override
+  public PrimitiveIterator.OfLong iterator() {
+    return new PrimitiveIterator.OfLong() {
+      private int idx;
+      
+      @Override
+      public boolean hasNext() {
+        return idx < masks.length;
+      }
+
+      @Override
+      public long nextLong() {
+        if (idx >= masks.length) throw new NoSuchElementException();
+        return masks[idx++];
+      }
+    };
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  /**
+   * Gets the next larger bitmask with the same number of set bits (Gosper's hack).
+   * 
+   * @param mask is the bitmask to get the successor of
+   * @return long is the next larger bitmask with the same number of set bits
+   */
+  private static long nextMask(long mask) {
+    long lowest = mask & -mask;
+    long ripple = mask + lowest;
+    return (((ripple ^ mask) >>> 2) / lowest) | ripple;
+  }
+}
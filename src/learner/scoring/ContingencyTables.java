@@ -0,0 +1,334 @@
+package learner.scoring;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import learner.features.FeatureType;
+import learner.store.ExperienceStore;
+import learner.store.NominalColumn;
+
+/**
+ * Precomputed outcome counts of every combination of values of combinations of
+ * nominal columns.
+ * 
+ * The score of a combination of only nominal features is the number of
+ * experiences of each outcome equal to the query in all of them, so a table
+ * from each combination's values to outcome counts answers it with one hash
+ * lookup.  Tables are built for combinations of two or more nominal columns in
+ * ascending size until a memory budget is spent.  Combinations of one column
+ * are counted by an InvertedIndex.
+ * 
+ * The tables cover the rows stored when they were built or last updated.
+ * Updating counts new rows into the existing tables, which may then exceed
+ * the budget until the tables are built anew.  Every row holds a value of
+ * each table's columns, so updating visits every table and is best done for
+ * many rows at once, with rows stored since counted from the store.
+ * 
+ * A snapshot of the tables shares them until either is updated, which copies
+ * each shared table before counting into it, so a snapshot may be read by
+ * other threads while the tables are updated.
+ * 
+ * @author woodser
+ */
+public class ContingencyTables {
+  
+  private static final int MAX_KEY_BITS = 62;  // maximum bits of a combination's packed codes
+  
+  private int size;                   // number of rows counted
+  private Map<Integer, Table> tables; // table of each combination bitmask
+  
+  /**
+   * Counts the experiences in a store.
+   * 
+   * @param store is the store to count
+   * @param maxBytes is the approximate memory the tables may use
+   */
+  public ContingencyTables(ExperienceStore store, long maxBytes) {
+    this.size = store.size();
+    this.tables = new HashMap<Integer, Table>();
+    int[] cols = new int[store.getFeatureSize()];
+    int numCols = 0;
+    for (int col = 0; col < store.getFeatureSize(); col++) {
+      if (store.getType(col) == FeatureType.NOMINAL) cols[numCols++] = col;
+    }
+    
+    // count combinations of each size in turn until none of a size fits
+    long bytes = 0;
+    for (int combinationSize = 2; combinationSize <= numCols; combinationSize++) {
+      boolean fit = false;
+      for (long subset = (1L << combinationSize) - 1; subset < 1L << numCols; subset = nextSubset(subset)) {
+        int mask = 0;
+        for (long bits = subset; bits != 0; bits &= bits - 1) mask |= 1 << cols[Long.numberOfTrailingZeros(bits)];
+        Table table = count(store, mask, maxBytes - bytes);
+        if (table == null) continue;
+        tables.put(mask, table);
+        bytes += table.getBytes();
+        fit = true;
+      }
+      if (!fit) break;
+    }
+  }
+  
+  /**
+   * Counts the rows stored since the tables were built or last updated.
+   * 
+   * A table is dropped if its columns' codes outgrow its keys, in which case
+   * its combinations are counted without it.
+   * 
+   * @param store is the store to count, which must be the store previously counted
+   */
+  public void update(ExperienceStore store) {
+    if (store.size() < size) throw new RuntimeException("Store has fewer rows than counted");
+    if (store.size() == size) return;
+    NominalColumn outcomes = store.getOutcomes();
+    NominalColumn weights = store.getWeights();
+    Iterator<Map.Entry<Integer, Table>> iter = tables.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Integer, Table> entry = iter.next();
+      if (entry.getValue().shared) entry.setValue(entry.getValue().copy());
+      Table table = entry.getValue();
+      NominalColumn[] columns = new NominalColumn[table.cols.length];
+      for (int i = 0; i < columns.length; i++) columns[i] = store.getNominal(table.cols[i]);
+      for (int row = size; row < store.size(); row++) {
+        if (!table.add(columns, row, outcomes.get(row), weights == null ? 1 : weights.get(row))) {
+          iter.remove();
+          break;
+        }
+      }
+    }
+    size = store.size();
+  }
+  
+  /**
+   * Gets a snapshot of the tables which is unaffected by later updates.
+   * 
+   * @return ContingencyTables is a snapshot of the tables
+   */
+  public ContingencyTables snapshot() {
+    for (Table table : tables.values()) table.shared = true;
+    return new ContingencyTables(size, new HashMap<Integer, Table>(tables));
+  }
+  
+  /**
+   * Gets the number of rows counted.
+   * 
+   * @return int is the number of rows covered by the tables
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Gets the number of tables.
+   * 
+   * @return int is the number of combinations counted
+   */
+  public int getTableCount() {
+    return tables.size();
+  }
+  
+  /**
+   * Gets the approximate memory used by the tables.
+   * 
+   * @return long is the approximate number of bytes used by the tables
+   */
+  public long getBytes() {
+    long bytes = 0;
+    for (Table table : tables.values()) bytes += table.getBytes();
+    return bytes;
+  }
+  
+  /**
+   * Writes the counts of every combination of two or more of the given nominal
+   * columns to the scores, leaving combinations with no equal experience unchanged.
+   * 
+   * @param query is the query whose codes to count
+   * @param cols are the nominal columns to combine
+   * @param numCols is the number of columns to combine
+   * @param scores are the scores indexed by combination bitmask * number of outcomes + outcome code
+   * @param numOutcomes is the number of outcomes of the scores
+   * @return true if every combination was counted, false if a combination has no table
+   */
+  boolean fill(EncodedQuery query, int[] cols, int numCols, double[] scores, int numOutcomes) {
+    int[] combinations = new int[1 << numCols];
+    for (int subset = 1; subset < 1 << numCols; subset++) {
+      combinations[subset] = combinations[subset & (subset - 1)] | 1 << cols[Integer.numberOfTrailingZeros(subset)];
+      if ((subset & (subset - 1)) == 0) continue;
+      Table table = tables.get(combinations[subset]);
+      if (table == null) return false;
+      table.fill(query, scores, combinations[subset] * numOutcomes, numOutcomes);
+    }
+    return true;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private ContingencyTables(int size, Map<Integer, Table> tables) {
+    this.size = size;
+    this.tables = tables;
+  }
+  
+  /**
+   * Gets the next larger subset with the same number of bits.
+   */
+  private static long nextSubset(long subset) {
+    long lowest = subset & -subset;
+    long carried = subset + lowest;
+    return carried | ((subset ^ carried) >>> 2) / lowest;
+  }
+  
+  /**
+   * Gets the number of bits to pack codes less than the given size.
+   */
+  private static int getBits(int size) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+  }
+  
+  /**
+   * Counts the values of a combination of nominal columns.
+   * 
+   * @return Table is the counts of the combination, null if they do not fit in the given memory
+   */
+  private Table count(ExperienceStore store, int mask, long maxBytes) {
+    int numCols = Integer.bitCount(mask);
+    NominalColumn[] columns = new NominalColumn[numCols];
+    int[] cols = new int[numCols];
+    int[] bits = new int[numCols];
+    int keyBits = 0;
+    for (int i = 0, remaining = mask; i < numCols; i++, remaining &= remaining - 1) {
+      cols[i] = Integer.numberOfTrailingZeros(remaining);
+      columns[i] = store.getNominal(cols[i]);
+      bits[i] = getBits(store.getDictionary(cols[i]).size());
+      keyBits += bits[i];
+    }
+    if (keyBits > MAX_KEY_BITS) return null;
+    Table table = new Table(cols, bits, store.getOutcomeDictionary().size());
+    NominalColumn outcomes = store.getOutcomes();
+    NominalColumn weights = store.getWeights();
+    for (int row = 0; row < size; row++) {
+      table.add(columns, row, outcomes.get(row), weights == null ? 1 : weights.get(row));
+      if (table.getBytes() > maxBytes) return null;
+    }
+    return table;
+  }
+  
+  /**
+   * Open addressing table of outcome counts by a combination's codes packed into a key.
+   */
+  private static class Table {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private int[] cols;       // columns of the combination in ascending order
+    private int[] bits;       // bits of each column's code in the key
+    private int numOutcomes;  // number of outcomes counted per key
+    private long[] keys;      // key + 1 of each slot, 0 if empty
+    private int[] counts;     // outcome counts of each slot
+    private int numKeys;      // number of occupied slots
+    private boolean shared;   // indicates if the table is shared with a snapshot and must be copied before counting
+    
+    Table(int[] cols, int[] bits, int numOutcomes) {
+      this.cols = cols;
+      this.bits = bits;
+      this.numOutcomes = Math.max(1, numOutcomes);
+      this.keys = new long[INITIAL_CAPACITY];
+      this.counts = new int[INITIAL_CAPACITY * this.numOutcomes];
+    }
+    
+    Table copy() {
+      Table copy = new Table(cols, bits.clone(), numOutcomes);
+      copy.keys = keys.clone();
+      copy.counts = counts.clone();
+      copy.numKeys = numKeys;
+      return copy;
+    }
+    
+    long getBytes() {
+      return 8L * keys.length + 4L * counts.length;
+    }
+    
+    /**
+     * Counts a row's experiences, widening the key or outcome counts as needed.
+     * 
+     * @return true if the row was counted, false if its codes do not fit in a key
+     */
+    boolean add(NominalColumn[] columns, int row, int outcome, int weight) {
+      long key = 0;
+      for (int i = 0; i < cols.length; i++) {
+        int code = columns[i].get(row);
+        if (code >>> bits[i] != 0 && !widen(i, getBits(code + 1))) return false;
+        key = key << bits[i] | code;
+      }
+      if (outcome >= numOutcomes) resize(keys.length, Math.max(outcome + 1, numOutcomes * 2));
+      if (2 * (numKeys + 1) > keys.length) resize(keys.length * 2, numOutcomes);
+      int slot = find(key);
+      if (keys[slot] == 0) {
+        keys[slot] = key + 1;
+        numKeys++;
+      }
+      counts[slot * numOutcomes + outcome] += weight;
+      return true;
+    }
+    
+    void fill(EncodedQuery query, double[] scores, int offset, int numScoredOutcomes) {
+      long key = 0;
+      for (int i = 0; i < cols.length; i++) {
+        int code = query.getCode(cols[i]);
+        if (code < 0 || code >>> bits[i] != 0) return;
+        key = key << bits[i] | code;
+      }
+      int slot = find(key);
+      if (keys[slot] == 0) return;
+      for (int outcome = 0; outcome < Math.min(numOutcomes, numScoredOutcomes); outcome++) scores[offset + outcome] = counts[slot * numOutcomes + outcome];
+    }
+    
+    private int find(long key) {
+      int slotMask = keys.length - 1;
+      int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & slotMask;
+      while (keys[slot] != 0 && keys[slot] != key + 1) slot = (slot + 1) & slotMask;
+      return slot;
+    }
+    
+    /**
+     * Widens a column's code in the key, repacking every key.
+     * 
+     * @return true if the key was widened, false if it would be too wide
+     */
+    private boolean widen(int col, int newBits) {
+      newBits = Math.max(newBits, bits[col] + 1);
+      int keyBits = 0;
+      for (int i = 0; i < bits.length; i++) keyBits += i == col ? newBits : bits[i];
+      if (keyBits > MAX_KEY_BITS) return false;
+      int shift = 0;
+      for (int i = col + 1; i < bits.length; i++) shift += bits[i];
+      long kept = (1L << (shift + bits[col])) - 1;
+      int added = newBits - bits[col];
+      for (int slot = 0; slot < keys.length; slot++) {
+        if (keys[slot] == 0) continue;
+        long key = keys[slot] - 1;
+        keys[slot] = ((key & ~kept) << added | key & kept) + 1;
+      }
+      bits[col] = newBits;
+      resize(keys.length, numOutcomes);
+      return true;
+    }
+    
+    /**
+     * Rehashes the keys into the given number of slots with the given number of outcomes each.
+     */
+    private void resize(int capacity, int newNumOutcomes) {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[capacity];
+      counts = new int[capacity * newNumOutcomes];
+      for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+        if (oldKeys[oldSlot] == 0) continue;
+        int slot = find(oldKeys[oldSlot] - 1);
+        keys[slot] = oldKeys[oldSlot];
+        System.arraycopy(oldCounts, oldSlot * numOutcomes, counts, slot * newNumOutcomes, numOutcomes);
+      }
+      numOutcomes = newNumOutcomes;
+    }
+  }
+}
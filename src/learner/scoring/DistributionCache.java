@@ -0,0 +1,217 @@
+package learner.scoring;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of outcome distributions by encoded query.
+ * 
+ * Queries are keyed by their continuous values, nominal codes and minimum
+ * similarity, so features encoding the same way share an entry, such as
+ * different nominal values never seen by the learner.  The cache is bounded by
+ * a number of entries and an approximate number of bytes, evicting the least
+ * recently used entries first.  Distributions are copied in and out, so
+ * callers may modify them freely.
+ * 
+ * The cache must be cleared whenever the experiences it was filled from change.
+ * 
+ * @author woodser
+ */
+public class DistributionCache {
+  
+  private static final long ENTRY_BYTES = 64;    // approximate bytes of an entry excluding its values and outcomes
+  private static final long OUTCOME_BYTES = 64;  // approximate bytes of each outcome of a distribution
+  
+  private int maxEntries;   // maximum number of cached distributions
+  private long maxBytes;    // maximum approximate bytes of cached distributions
+  private long bytes;       // approximate bytes of cached distributions
+  private long hits;        // number of lookups which found a distribution
+  private long misses;      // number of lookups which found no distribution
+  private long evictions;   // number of distributions evicted to stay within bounds
+  private LinkedHashMap<Key, Map<Object, Double>> entries;
+  
+  /**
+   * Constructs a cache with the given bounds.
+   * 
+   * @param maxEntries is the maximum number of distributions to cache
+   * @param maxBytes is the maximum approximate number of bytes to cache
+   */
+  public DistributionCache(int maxEntries, long maxBytes) {
+    if (maxEntries <= 0) throw new RuntimeException("Cache must hold at least one entry: " + maxEntries);
+    if (maxBytes <= 0) throw new RuntimeException("Cache must hold at least one byte: " + maxBytes);
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.entries = new LinkedHashMap<Key, Map<Object, Double>>(16, 0.75f, true);
+  }
+  
+  /**
+   * Gets the cached distribution of a query.
+   * 
+   * @param query is the query to get the distribution of
+   * @return Map<Object, Double> is a copy of the cached distribution, null if not cached
+   */
+  public synchronized Map<Object, Double> get(EncodedQuery query) {
+    Map<Object, Double> distribution = entries.get(new Key(query));
+    if (distribution == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return new HashMap<Object, Double>(distribution);
+  }
+  
+  /**
+   * Caches the distribution of a query, evicting least recently used distributions to stay within bounds.
+   * 
+   * @param query is the query to cache the distribution of
+   * @param distribution is the distribution of the query
+   */
+  public synchronized void put(EncodedQuery query, Map<Object, Double> distribution) {
+    Key key = new Key(query);
+    long entryBytes = getBytes(key, distribution);
+    if (entryBytes > maxBytes) return;
+    Map<Object, Double> previous = entries.put(key, new HashMap<Object, Double>(distribution));
+    if (previous != null) bytes -= getBytes(key, previous);
+    bytes += entryBytes;
+    Iterator<Map.Entry<Key, Map<Object, Double>>> iter = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      Map.Entry<Key, Map<Object, Double>> eldest = iter.next();
+      bytes -= getBytes(eldest.getKey(), eldest.getValue());
+      iter.remove();
+      evictions++;
+    }
+  }
+  
+  /**
+   * Removes every cached distribution.  Metrics are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+  
+  /**
+   * Gets the number of cached distributions.
+   * 
+   * @return int is the number of cached distributions
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+  
+  /**
+   * Gets the approximate memory used by cached distributions.
+   * 
+   * @return long is the approximate number of bytes of cached distributions
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+  
+  /**
+   * Gets the maximum number of cached distributions.
+   * 
+   * @return int is the maximum number of cached distributions
+   */
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+  
+  /**
+   * Gets the maximum approximate memory of cached distributions.
+   * 
+   * @return long is the maximum approximate number of bytes of cached distributions
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+  
+  /**
+   * Gets the number of lookups which found a cached distribution.
+   * 
+   * @return long is the number of cache hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+  
+  /**
+   * Gets the number of lookups which found no cached distribution.
+   * 
+   * @return long is the number of cache misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * Gets the number of distributions evicted to stay within bounds.
+   * 
+   * @return long is the number of evictions
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+  
+  /**
+   * Gets the fraction of lookups which found a cached distribution.
+   * 
+   * @return double is the hit rate in [0, 1], 0 if there have been no lookups
+   */
+  public synchronized double getHitRate() {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+  
+  /**
+   * Resets the hit, miss and eviction counts.
+   */
+  public synchronized void resetMetrics() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private static long getBytes(Key key, Map<Object, Double> distribution) {
+    return ENTRY_BYTES + 8L * key.values.length + OUTCOME_BYTES * distribution.size();
+  }
+  
+  /**
+   * Encoded values of a query with a precomputed hash.
+   */
+  private static class Key {
+    
+    private long[] values;  // value bits or code of each column followed by the minimum similarity bits
+    private int hash;
+    
+    Key(EncodedQuery query) {
+      int featureSize = query.getFeatureSize();
+      values = new long[featureSize + 1];
+      long hash = featureSize;
+      for (int col = 0; col < featureSize; col++) {
+        values[col] = (query.getContinuousMask() & 1L << col) != 0 ? Double.doubleToLongBits(query.getValue(col)) : query.getCode(col);
+        hash = (hash ^ values[col]) * 0x9E3779B97F4A7C15L;
+      }
+      values[featureSize] = Double.doubleToLongBits(query.getMinSimilarity());
+      hash = (hash ^ values[featureSize]) * 0x9E3779B97F4A7C15L;
+      this.hash = (int) (hash ^ (hash >>> 32));
+    }
+    
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return hash == other.hash && Arrays.equals(values, other.values);
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package learner.scoring;
+
+import java.util.Arrays;
+import java.util.List;
+
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.FeatureType;
+import learner.features.NominalFeature;
+import learner.store.ContinuousColumn;
+import learner.store.ExperienceStore;
+import learner.store.NominalColumn;
+
+/**
+ * Query features encoded against the columns of an experience store.
+ * 
+ * A query may be reused for many queries against the same store by setting
+ * its values in place, in which case it also keeps the scratch buffers used
+ * to score it.  A query must not be used by more than one thread at a time.
+ * 
+ * @author woodser
+ */
+public class EncodedQuery {
+
+  private ExperienceStore store;
+  private int featureSize;
+  private ContinuousColumn[] continuous;  // continuous columns of the store, null for nominal columns
+  private NominalColumn[] nominal;        // nominal columns of the store, null for continuous columns
+  private double[] values;        // query values of continuous columns
+  private int[] codes;            // query codes of nominal columns, -1 if never seen
+  private double minSimilarity;   // similarities below which are treated as 0
+  private boolean logSpace;       // indicates if the query is scored in log space, with scores scaled by binary exponents
+  private long continuousMask;    // bitmask of the continuous columns
+  
+  // scratch buffers to score the query with
+  double[] scores;
+  double[] similarities;
+  double[] products;
+  int[] exponents;
+  int[] similarityExponents;
+  int[] productExponents;
+  long[] candidates;
+  int[] rowMasks;
+  SimilarityBlock block;
+  
+  /**
+   * Constructs a reusable query against the given store with continuous values of 0 and unseen nominal values.
+   * 
+   * @param store is the store to encode features against, which must have experience and at most 63 features
+   */
+  public EncodedQuery(ExperienceStore store) {
+    if (store.isEmpty()) throw new RuntimeException("Learner must have experience");
+    this.store = store;
+    this.featureSize = store.getFeatureSize();
+    if (featureSize > 63) throw new IllegalArgumentException("Number of features must be at most 63: " + featureSize);
+    this.continuous = new ContinuousColumn[featureSize];
+    this.nominal = new NominalColumn[featureSize];
+    this.values = new double[featureSize];
+    this.codes = new int[featureSize];
+    Arrays.fill(codes, -1);
+    for (int i = 0; i < featureSize; i++) {
+      if (store.getType(i) == FeatureType.CONTINUOUS) continuousMask |= 1L << i;
+    }
+  }
+  
+  /**
+   * Encodes query features against the given store.
+   * 
+   * @param store is the store to encode the features against
+   * @param features are the query features
+   */
+  public EncodedQuery(ExperienceStore store, List<Feature> features) {
+    this(store);
+    if (featureSize != features.size()) throw new RuntimeException("Features must be uniform size");
+    for (int i = 0; i < featureSize; i++) {
+      Feature feature = features.get(i);
+      if (FeatureType.of(feature) != store.getType(i)) throw new RuntimeException("Cannot compare different features: " + feature.getClass());
+      if (store.getType(i) == FeatureType.CONTINUOUS) setContinuous(i, ((ContinuousFeature) feature).getVal());
+      else setNominal(i, ((NominalFeature) feature).getVal());
+    }
+  }
+  
+  /**
+   * Gets the store the query is encoded against.
+   * 
+   * @return ExperienceStore is the store the query is encoded against
+   */
+  public ExperienceStore getStore() {
+    return store;
+  }
+  
+  /**
+   * Gets the number of query features.
+   * 
+   * @return int is the number of query features
+   */
+  public int getFeatureSize() {
+    return featureSize;
+  }
+  
+  /**
+   * Sets the value of a continuous query feature.
+   * 
+   * @param col is the continuous column of the feature
+   * @param value is the value of the feature
+   */
+  public void setContinuous(int col, double value) {
+    if (store.getType(col) != FeatureType.CONTINUOUS) throw new RuntimeException("Cannot compare different features: " + ContinuousFeature.class);
+    values[col] = value;
+  }
+  
+  /**
+   * Sets the value of a nominal query feature.
+   * 
+   * @param col is the nominal column of the feature
+   * @param value is the value of the feature
+   */
+  public void setNominal(int col, String value) {
+    if (store.getType(col) != FeatureType.NOMINAL) throw new RuntimeException("Cannot compare different features: " + NominalFeature.class);
+    codes[col] = store.getDictionary(col).lookup(value);
+  }
+  
+  /**
+   * Gets the minimum similarity of a feature to count as similar.
+   * 
+   * @return double is the similarity below which features are treated as dissimilar
+   */
+  public double getMinSimilarity() {
+    return minSimilarity;
+  }
+  
+  /**
+   * Sets the minimum similarity of a feature to count as similar.
+   * 
+   * Treating small similarities as 0 skips the combinations they would
+   * contribute to, trading accuracy for speed.  The default of 0 is exact.
+   * 
+   * @param minSimilarity is the similarity below which features are treated as dissimilar
+   */
+  public void setMinSimilarity(double minSimilarity) {
+    this.minSimilarity = minSimilarity;
+  }
+  
+  /**
+   * Indicates if the query is scored in log space.
+   * 
+   * @return true if scores are scaled by binary exponents, false if they are plain sums
+   */
+  public boolean isLogSpace() {
+    return logSpace;
+  }
+  
+  /**
+   * Sets if the query is scored in log space.
+   * 
+   * Products of many small similarities underflow to 0, which drops the
+   * experiences from high-order combinations.  In log space products and
+   * scores carry a separate binary exponent, so no experience underflows.
+   * Each score scaled by its exponent is exactly the plain score whenever
+   * that does not underflow.
+   * 
+   * @param logSpace specifies if scores are scaled by binary exponents
+   */
+  public void setLogSpace(boolean logSpace) {
+    this.logSpace = logSpace;
+  }
+  
+  /**
+   * Gets the binary exponents of the scores of the query's last scoring.
+   * 
+   * Each score scaled by 2 to the power of its exponent is the plain score,
+   * so scores brought to a common exponent are exactly the plain scores
+   * scaled by a power of 2, equal wherever the plain scores are equal.
+   * 
+   * @return int[] are the binary exponents indexed as the scores, null if the query was not scored in log space
+   */
+  public int[] getExponents() {
+    return exponents;
+  }
+  
+  /**
+   * Computes the similarity of each query feature to the features of a stored row.
+   * 
+   * Undefined (NaN) similarities and similarities below the minimum are reported as 0.
+   * 
+   * @param row is the stored row to compare to
+   * @param similarities receives the similarity of each feature
+   * @return long is a bitmask of the features with nonzero similarity
+   */
+  public long getSimilarities(int row, double[] similarities) {
+    long nonzero = 0;
+    for (int i = 0; i < featureSize; i++) {
+      double similarity;
+      if (continuous[i] != null) similarity = ContinuousFeature.compare(values[i], continuous[i].get(row));
+      else similarity = codes[i] == nominal[i].get(row) ? 1 : 0;
+      if (similarity > 0 && similarity >= minSimilarity) {
+        similarities[i] = similarity;
+        nonzero |= 1L << i;
+      } else {
+        similarities[i] = 0;
+      }
+    }
+    return nonzero;
+  }
+  
+  /**
+   * Gets the bound store column of a continuous feature.
+   * 
+   * @param col is the column of the feature
+   * @return ContinuousColumn is the store column, null if the feature is nominal
+   */
+  ContinuousColumn getContinuousColumn(int col) {
+    return continuous[col];
+  }
+  
+  /**
+   * Gets the bound store column of a nominal feature.
+   * 
+   * @param col is the column of the feature
+   * @return NominalColumn is the store column, null if the feature is continuous
+   */
+  NominalColumn getNominalColumn(int col) {
+    return nominal[col];
+  }
+  
+  /**
+   * Gets a bitmask of the continuous columns.
+   * 
+   * @return long is a bitmask of the continuous columns
+   */
+  long getContinuousMask() {
+    return continuousMask;
+  }
+  
+  /**
+   * Gets the query value of a continuous column.
+   * 
+   * @param col is the continuous column
+   * @return double is the query value of the column
+   */
+  double getValue(int col) {
+    return values[col];
+  }
+  
+  /**
+   * Gets the query code of a nominal column.
+   * 
+   * @param col is the nominal column
+   * @return int is the query code of the column, -1 if the value was never stored
+   */
+  int getCode(int col) {
+    return codes[col];
+  }
+  
+  /**
+   * Refreshes the store columns the query compares to, which are replaced as the store grows.
+   */
+  void bindColumns() {
+    for (int i = 0; i < featureSize; i++) {
+      if (store.getType(i) == FeatureType.CONTINUOUS) continuous[i] = store.getContinuous(i);
+      else nominal[i] = store.getNominal(i);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package learner.scoring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import learner.features.FeatureType;
+import learner.store.ExperienceStore;
+import learner.store.NominalColumn;
+
+/**
+ * Posting lists of the rows holding each value of each nominal column, with
+ * the number of experiences of each outcome.
+ * 
+ * Nominal features are similar only when equal, so the experiences similar to
+ * a combination of nominal query features are the intersection of their
+ * posting lists.  The index is extended incrementally as experiences are stored.
+ * 
+ * A snapshot of the index shares the rows of its postings, which are only
+ * appended to, so it may be read by other threads while the index is updated.
+ * 
+ * @author woodser
+ */
+public class InvertedIndex {
+  
+  private static final int INITIAL_CAPACITY = 16;
+  
+  private volatile int size;            // number of indexed rows, written after the postings
+  private List<List<Posting>> postings; // postings of each nominal column by code, null for continuous columns
+  
+  /**
+   * Constructs an empty index.
+   */
+  public InvertedIndex() {
+    this.postings = new ArrayList<List<Posting>>();
+  }
+  
+  /**
+   * Gets the number of indexed rows.
+   * 
+   * @return int is the number of rows covered by the index
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Indexes the rows stored since the index was last updated.
+   * 
+   * @param store is the store to index, which must be the store previously indexed
+   */
+  public void update(ExperienceStore store) {
+    if (store.size() < size) throw new RuntimeException("Store has fewer rows than indexed");
+    if (store.size() == size) return;
+    if (postings.isEmpty()) {
+      for (int col = 0; col < store.getFeatureSize(); col++) postings.add(store.getType(col) == FeatureType.NOMINAL ? new ArrayList<Posting>() : null);
+    }
+    NominalColumn outcomes = store.getOutcomes();
+    NominalColumn weights = store.getWeights();
+    for (int col = 0; col < postings.size(); col++) {
+      List<Posting> colPostings = postings.get(col);
+      if (colPostings == null) continue;
+      NominalColumn column = store.getNominal(col);
+      for (int row = size; row < store.size(); row++) {
+        int code = column.get(row);
+        while (colPostings.size() <= code) colPostings.add(new Posting());
+        colPostings.get(code).add(row, outcomes.get(row), weights == null ? 1 : weights.get(row));
+      }
+    }
+    size = store.size();
+  }
+  
+  /**
+   * Gets a snapshot of the index which is unaffected by later updates.
+   * 
+   * @return InvertedIndex is a snapshot of the index
+   */
+  public InvertedIndex snapshot() {
+    InvertedIndex snapshot = new InvertedIndex();
+    for (List<Posting> colPostings : postings) {
+      if (colPostings == null) {
+        snapshot.postings.add(null);
+        continue;
+      }
+      List<Posting> colSnapshots = new ArrayList<Posting>(colPostings.size());
+      for (Posting posting : colPostings) colSnapshots.add(posting.snapshot());
+      snapshot.postings.add(colSnapshots);
+    }
+    snapshot.size = size;
+    return snapshot;
+  }
+  
+  /**
+   * Gets the number of rows holding a value.
+   * 
+   * @param col is the nominal column
+   * @param code is the code of the value
+   * @return int is the number of rows holding the value
+   */
+  public int getCount(int col, int code) {
+    List<Posting> colPostings = postings.get(col);
+    return code < 0 || code >= colPostings.size() ? 0 : colPostings.get(code).size;
+  }
+  
+  /**
+   * Gets the number of experiences of an outcome holding a value, counting each row by its weight.
+   * 
+   * @param col is the nominal column
+   * @param code is the code of the value
+   * @param outcome is the code of the outcome
+   * @return int is the number of experiences of the outcome holding the value
+   */
+  public int getOutcomeCount(int col, int code, int outcome) {
+    List<Posting> colPostings = postings.get(col);
+    if (code < 0 || code >= colPostings.size()) return 0;
+    int[] outcomeCounts = colPostings.get(code).outcomeCounts;
+    return outcome < outcomeCounts.length ? outcomeCounts[outcome] : 0;
+  }
+  
+  /**
+   * Gets the rows holding a value in ascending order.  Only the first getCount() rows are valid.
+   * 
+   * @param col is the nominal column
+   * @param code is the code of the value, which must be held by at least one row
+   * @return int[] are the rows holding the value
+   */
+  int[] getRows(int col, int code) {
+    return postings.get(col).get(code).rows;
+  }
+  
+  /**
+   * Rows and outcome counts of one value.
+   */
+  private static class Posting {
+    
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int size;
+    private int[] outcomeCounts = new int[2];
+    private boolean shared;  // indicates if rows past size may be written by the posting the rows are shared with
+    
+    Posting snapshot() {
+      Posting snapshot = new Posting();
+      snapshot.rows = rows;
+      snapshot.size = size;
+      snapshot.outcomeCounts = outcomeCounts.clone();
+      snapshot.shared = true;
+      return snapshot;
+    }
+    
+    void add(int row, int outcome, int weight) {
+      if (shared || size == rows.length) {
+        int[] grown = new int[Math.max(size + 1, size + (size >> 1))];
+        System.arraycopy(rows, 0, grown, 0, size);
+        rows = grown;
+        shared = false;
+      }
+      rows[size++] = row;
+      if (outcome >= outcomeCounts.length) {
+        int[] grown = new int[Math.max(outcome + 1, outcomeCounts.length * 2)];
+        System.arraycopy(outcomeCounts, 0, grown, 0, outcomeCounts.length);
+        outcomeCounts = grown;
+      }
+      outcomeCounts[outcome] += weight;
+    }
+  }
+}
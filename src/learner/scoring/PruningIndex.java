@@ -0,0 +1,242 @@
+package learner.scoring;
+
+import java.util.Arrays;
+
+import learner.features.FeatureType;
+import learner.store.ContinuousColumn;
+import learner.store.ExperienceStore;
+
+/**
+ * Index over stored experiences which finds the rows that can have a
+ * continuous feature similar to a query.
+ * 
+ * A continuous value q is only similar to values strictly between 0 and 2q,
+ * and to values within |q| * (1 - sqrt(s)) of q with a similarity of at least
+ * s.  Each continuous column is sorted so these ranges are found by binary
+ * search.  A row outside every range contributes only to combinations of
+ * nominal features, which are counted from an InvertedIndex, so scoring can
+ * skip it without comparing its features.
+ * 
+ * The index covers the rows stored when it was built or last updated.  Rows
+ * learned since are always candidates, so the index never has to be updated
+ * for correctness.  Updating merges the new rows into the sorted columns.
+ * Sorted columns are replaced rather than modified, so a snapshot of the
+ * index may be read by other threads while the index is updated.
+ * 
+ * @author woodser
+ */
+public class PruningIndex {
+  
+  private static final double MAX_CANDIDATE_FRACTION = 0.5;  // candidate fraction above which scanning every row is cheaper
+  private static final double RANGE_TOLERANCE = 1e-9;        // relative widening of ranges to absorb rounding
+  
+  private int size;               // number of indexed rows
+  private double[][] values;      // sorted values of each continuous column excluding NaN, null for nominal columns
+  private int[][] valueRows;      // row of each sorted value
+  
+  /**
+   * Indexes the experiences in a store.
+   * 
+   * @param store is the store to index
+   */
+  public PruningIndex(ExperienceStore store) {
+    int featureSize = store.getFeatureSize();
+    values = new double[featureSize][];
+    valueRows = new int[featureSize][];
+    for (int col = 0; col < featureSize; col++) {
+      if (store.getType(col) != FeatureType.CONTINUOUS) continue;
+      values[col] = new double[0];
+      valueRows[col] = new int[0];
+    }
+    update(store);
+  }
+  
+  /**
+   * Indexes the rows stored since the index was built or last updated.
+   * 
+   * @param store is the store to index, which must be the store previously indexed
+   */
+  public void update(ExperienceStore store) {
+    if (store.size() < size) throw new RuntimeException("Store has fewer rows than indexed");
+    if (store.size() == size) return;
+    for (int col = 0; col < values.length; col++) {
+      if (values[col] != null) indexContinuous(col, store.getContinuous(col), store.size());
+    }
+    size = store.size();
+  }
+  
+  /**
+   * Gets a snapshot of the index which is unaffected by later updates.
+   * 
+   * @return PruningIndex is a snapshot of the index
+   */
+  public PruningIndex snapshot() {
+    return new PruningIndex(size, values.clone(), valueRows.clone());
+  }
+  
+  /**
+   * Gets the number of indexed rows.
+   * 
+   * @return int is the number of rows covered by the index
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Marks the indexed rows which may have a continuous feature similar to the query.
+   * 
+   * @param query is the query to find candidate rows for
+   * @param candidates is a bitmap of at least size() bits to mark candidate rows in
+   * @return true if the candidates were marked, false if so many rows are candidates that every row should be scored
+   */
+  boolean markCandidates(EncodedQuery query, long[] candidates) {
+    if (query.getFeatureSize() != values.length) throw new RuntimeException("Features must be uniform size");
+    
+    // find each feature's candidate rows and give up if there are too many
+    int featureSize = values.length;
+    int[] starts = new int[featureSize];
+    int[] ends = new int[featureSize];
+    long count = 0;
+    for (int col = 0; col < featureSize; col++) {
+      if (values[col] == null) continue;
+      double q = query.getValue(col);
+      if (q == 0 || Double.isNaN(q) || Double.isInfinite(q)) continue;
+      double minSimilarity = Math.min(1, Math.max(0, query.getMinSimilarity()));
+      double radius = Math.abs(q) * (1 - Math.sqrt(minSimilarity) + RANGE_TOLERANCE);
+      starts[col] = lowerBound(values[col], q - radius);
+      ends[col] = upperBound(values[col], q + radius);
+      count += ends[col] - starts[col];
+    }
+    if (count >= size * MAX_CANDIDATE_FRACTION) return false;
+    
+    // mark candidates
+    Arrays.fill(candidates, 0, (size + 63) >>> 6, 0);
+    for (int col = 0; col < featureSize; col++) {
+      int[] rows = valueRows[col];
+      for (int i = starts[col]; i < ends[col]; i++) candidates[rows[i] >>> 6] |= 1L << rows[i];
+    }
+    return true;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private PruningIndex(int size, double[][] values, int[][] valueRows) {
+    this.size = size;
+    this.values = values;
+    this.valueRows = valueRows;
+  }
+  
+  /**
+   * Sorts the values of rows from size() to the given row and merges them into a column's sorted values.
+   */
+  private void indexContinuous(int col, ContinuousColumn column, int to) {
+    int count = 0;
+    for (int row = size; row < to; row++) {
+      if (!Double.isNaN(column.get(row))) count++;
+    }
+    double[] sorted = new double[count];
+    int[] rows = new int[count];
+    count = 0;
+    for (int row = size; row < to; row++) {
+      double value = column.get(row);
+      if (Double.isNaN(value)) continue;
+      sorted[count] = value;
+      rows[count++] = row;
+    }
+    sort(sorted, rows, 0, count - 1);
+    if (values[col].length == 0) {
+      values[col] = sorted;
+      valueRows[col] = rows;
+      return;
+    }
+    
+    // merge with the indexed values
+    double[] oldValues = values[col];
+    int[] oldRows = valueRows[col];
+    double[] merged = new double[oldValues.length + count];
+    int[] mergedRows = new int[merged.length];
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < merged.length; k++) {
+      if (j == count || i < oldValues.length && oldValues[i] <= sorted[j]) {
+        merged[k] = oldValues[i];
+        mergedRows[k] = oldRows[i++];
+      } else {
+        merged[k] = sorted[j];
+        mergedRows[k] = rows[j++];
+      }
+    }
+    values[col] = merged;
+    valueRows[col] = mergedRows;
+  }
+  
+  /**
+   * Gets the index of the first value at least the given key.
+   */
+  private static int lowerBound(double[] values, double key) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] < key) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+  
+  /**
+   * Gets the index of the first value greater than the given key.
+   */
+  private static int upperBound(double[] values, double key) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] <= key) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+  
+  /**
+   * Sorts values and their rows together by value.
+   */
+  private static void sort(double[] values, int[] rows, int low, int high) {
+    while (high - low > 16) {
+      double pivot = median(values[low], values[(low + high) >>> 1], values[high]);
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (values[i] < pivot) i++;
+        while (values[j] > pivot) j--;
+        if (i <= j) swap(values, rows, i++, j--);
+      }
+      
+      // recurse into the smaller part to bound the stack depth
+      if (j - low < high - i) {
+        sort(values, rows, low, j);
+        low = i;
+      } else {
+        sort(values, rows, i, high);
+        high = j;
+      }
+    }
+    for (int i = low + 1; i <= high; i++) {
+      for (int j = i; j > low && values[j - 1] > values[j]; j--) swap(values, rows, j - 1, j);
+    }
+  }
+  
+  private static double median(double a, double b, double c) {
+    return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+  }
+  
+  private static void swap(double[] values, int[] rows, int i, int j) {
+    double value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+    int row = rows[i];
+    rows[i] = rows[j];
+    rows[j] = row;
+  }
+}
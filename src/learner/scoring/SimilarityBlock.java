@@ -0,0 +1,229 @@
+package learner.scoring;
+
+import java.util.Arrays;
+
+import learner.store.ContinuousColumn;
+import learner.store.NominalColumn;
+
+/**
+ * Similarities of a query to a block of consecutive stored experiences,
+ * computed a column at a time.
+ * 
+ * Comparing one column across a block runs the same arithmetic over
+ * consecutive array elements with no calls or branches, which the JIT can
+ * compile to SIMD instructions on processors that have them.  Rows scored
+ * one at a time, such as the sparse candidates of a PruningIndex, are
+ * compared with EncodedQuery.getSimilarities instead.  Both give identical
+ * similarities.
+ * 
+ * The block is a similarity matrix of the query's features by the block's
+ * rows, so combinations can be multiplied out across every row of the block
+ * from the same similarities.  Each feature also lists its similar rows, so
+ * combinations with a rarely similar feature only visit those rows.
+ * 
+ * @author woodser
+ */
+final class SimilarityBlock {
+  
+  static final int SIZE = 256;  // maximum number of rows in a block
+  private static final int MIN_DENSE_FRACTION = 4;  // rows per similar row below which only similar rows are visited
+  
+  private int featureSize;
+  private int length;             // number of rows in the block
+  private double[] similarities;  // similarity of each column to each row, indexed by column * SIZE + row, 0 if not similar
+  private long[] masks;           // bitmask of the features with nonzero similarity of each row
+  private int[] similarRows;      // rows with nonzero similarity of each column, indexed by column * SIZE + position
+  private int[] similarCounts;    // number of rows with nonzero similarity of each column
+  private int[] outcomes;         // outcome code of each row
+  private double[] weights;       // number of experiences of each row
+  private double[] products;      // product of a combination's similarities for each row
+  private double[] values;        // scratch values of a continuous column
+  private int[] codes;            // scratch codes of a nominal column
+  
+  /**
+   * Constructs an empty block.
+   * 
+   * @param featureSize is the number of query features
+   */
+  SimilarityBlock(int featureSize) {
+    this.featureSize = featureSize;
+    this.similarities = new double[featureSize * SIZE];
+    this.masks = new long[SIZE];
+    this.similarRows = new int[featureSize * SIZE];
+    this.similarCounts = new int[featureSize];
+    this.outcomes = new int[SIZE];
+    this.weights = new double[SIZE];
+    this.products = new double[SIZE];
+    this.values = new double[SIZE];
+    this.codes = new int[SIZE];
+  }
+  
+  /**
+   * Compares a query to consecutive stored rows and reads their outcomes and weights.
+   * 
+   * Undefined (NaN) similarities and similarities below the query's minimum are treated as 0.
+   * 
+   * @param query is the query to compare, whose columns are bound
+   * @param from is the first row to compare (inclusive)
+   * @param to is the last row to compare (exclusive), at most SIZE rows after the first
+   */
+  void compare(EncodedQuery query, int from, int to) {
+    length = to - from;
+    query.getStore().getOutcomes().get(from, to, outcomes);
+    NominalColumn storeWeights = query.getStore().getWeights();
+    if (storeWeights == null) Arrays.fill(weights, 0, length, 1);
+    else {
+      storeWeights.get(from, to, codes);
+      for (int i = 0; i < length; i++) weights[i] = codes[i];
+    }
+    Arrays.fill(masks, 0, length, 0);
+    double minSimilarity = query.getMinSimilarity();
+    for (int col = 0; col < featureSize; col++) {
+      int offset = col * SIZE;
+      ContinuousColumn continuous = query.getContinuousColumn(col);
+      if (continuous != null) {
+        continuous.get(from, to, values);
+        compareContinuous(query.getValue(col), values, similarities, offset, length);
+      } else {
+        query.getNominalColumn(col).get(from, to, codes);
+        compareNominal(query.getCode(col), codes, similarities, offset, length);
+      }
+      similarCounts[col] = mask(similarities, offset, length, minSimilarity, 1L << col, masks, similarRows);
+    }
+  }
+  
+  /**
+   * Gets the number of rows in the block.
+   * 
+   * @return int is the number of rows compared
+   */
+  int size() {
+    return length;
+  }
+  
+  /**
+   * Gets the outcome code of a row of the block.
+   * 
+   * @param i is the position of the row in the block
+   * @return int is the outcome code of the row
+   */
+  int getOutcome(int i) {
+    return outcomes[i];
+  }
+  
+  /**
+   * Gets the number of experiences of a row of the block.
+   * 
+   * @param i is the position of the row in the block
+   * @return double is the weight of the row
+   */
+  double getWeight(int i) {
+    return weights[i];
+  }
+  
+  /**
+   * Adds the product of a combination's similarities for each row of the block,
+   * times the row's weight, to the row's outcome score.
+   * 
+   * Similarities are multiplied in ascending feature order and added in row
+   * order, so scores are exactly those of multiplying out each row alone.  If
+   * a feature of the combination is similar in few rows, only those rows are
+   * visited.  Otherwise the combination is multiplied out across every row,
+   * with rows not similar in every feature adding 0.
+   * 
+   * @param combination is a nonempty bitmask of features
+   * @param scores are the scores to add to
+   * @param offset is the index of the combination's first outcome score
+   */
+  void addProducts(long combination, double[] scores, int offset) {
+    
+    // find the feature similar in the fewest rows
+    int rarest = Long.numberOfTrailingZeros(combination);
+    for (long bits = combination & combination - 1; bits != 0; bits &= bits - 1) {
+      int col = Long.numberOfTrailingZeros(bits);
+      if (similarCounts[col] < similarCounts[rarest]) rarest = col;
+    }
+    int count = similarCounts[rarest];
+    if (count == 0) return;
+    
+    // visit only the rows similar in the rarest feature
+    if (count * MIN_DENSE_FRACTION < length) {
+      for (int k = 0; k < count; k++) {
+        int i = similarRows[rarest * SIZE + k];
+        if ((masks[i] & combination) != combination) continue;
+        double product = 1;
+        for (long bits = combination; bits != 0; bits &= bits - 1) product *= similarities[Long.numberOfTrailingZeros(bits) * SIZE + i];
+        scores[offset + outcomes[i]] += product * weights[i];
+      }
+      return;
+    }
+    
+    // multiply out every row a feature at a time
+    int first = Long.numberOfTrailingZeros(combination);
+    System.arraycopy(similarities, first * SIZE, products, 0, length);
+    for (long bits = combination & combination - 1; bits != 0; bits &= bits - 1) {
+      int colOffset = Long.numberOfTrailingZeros(bits) * SIZE;
+      for (int i = 0; i < length; i++) products[i] *= similarities[colOffset + i];
+    }
+    for (int i = 0; i < length; i++) scores[offset + outcomes[i]] += products[i] * weights[i];
+  }
+  
+  /**
+   * Copies the nonzero similarities of a row of the block.
+   * 
+   * @param i is the position of the row in the block
+   * @param rowSimilarities receives the similarity of each feature with nonzero similarity
+   * @return long is a bitmask of the features with nonzero similarity
+   */
+  long getSimilarities(int i, double[] rowSimilarities) {
+    long mask = masks[i];
+    for (long bits = mask; bits != 0; bits &= bits - 1) {
+      int col = Long.numberOfTrailingZeros(bits);
+      rowSimilarities[col] = similarities[col * SIZE + i];
+    }
+    return mask;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  /**
+   * Computes the similarity of a continuous query value to stored values, as ContinuousFeature.compare().
+   */
+  private static void compareContinuous(double query, double[] values, double[] similarities, int offset, int length) {
+    double magnitude = Math.abs(query);
+    for (int i = 0; i < length; i++) {
+      double similarity = Math.max(0, magnitude - Math.abs(query - values[i])) / query;
+      similarities[offset + i] = similarity * similarity;
+    }
+  }
+  
+  /**
+   * Computes the similarity of a nominal query code to stored codes, 1 if equal and 0 otherwise.
+   */
+  private static void compareNominal(int query, int[] codes, double[] similarities, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      int diff = codes[i] ^ query;
+      similarities[offset + i] = ((diff | -diff) >>> 31) ^ 1;  // sign bit of diff | -diff is set unless diff is 0
+    }
+  }
+  
+  /**
+   * Sets a feature's bit in the mask of each row with a nonzero similarity of
+   * at least the minimum, lists those rows, and zeroes the similarities of the
+   * other rows.
+   * 
+   * @return int is the number of rows listed
+   */
+  private static int mask(double[] similarities, int offset, int length, double minSimilarity, long bit, long[] masks, int[] similarRows) {
+    int count = 0;
+    for (int i = 0; i < length; i++) {
+      double similarity = similarities[offset + i];
+      boolean similar = similarity > 0 && similarity >= minSimilarity;  // false for NaN
+      similarities[offset + i] = similar ? similarity : 0;
+      masks[i] |= similar ? bit : 0;
+      similarRows[offset + count] = i;
+      count += similar ? 1 : 0;
+    }
+    return count;
+  }
+}
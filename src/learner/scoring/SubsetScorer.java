@@ -0,0 +1,596 @@
+package learner.scoring;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import learner.store.ExperienceStore;
+import learner.store.NominalColumn;
+
+/**
+ * Scores every feature combination of a query in one pass over the stored experiences.
+ * 
+ * The score of a combination for an outcome is the sum, over experiences with
+ * that outcome, of the product of the combination's feature similarities.  Each
+ * experience's products are built incrementally over the subsets of its nonzero
+ * continuous similarities, so product(S + {i}) = product(S) * similarity(i),
+ * and subsets containing a zero similarity are never visited.  Similar nominal
+ * features have a similarity of exactly 1, so adding them to a subset leaves
+ * its product unchanged and the product is added to the subset with every
+ * combination of the experience's similar nominal features.  Products are
+ * multiplied in ascending feature order and summed in experience order, so
+ * scores are exactly those of multiplying each combination out separately.
+ * 
+ * Combinations of only nominal features score the number of experiences equal
+ * to the query in all of them.  With an InvertedIndex these counts come from
+ * the posting lists, or from ContingencyTables when precomputed, so the pass
+ * over experiences visits only combinations with a continuous feature and can
+ * skip experiences with no similar continuous feature, which a PruningIndex
+ * finds.
+ * 
+ * A query may instead be scored in log space, in which case products and
+ * scores are scaled by a separate binary exponent, so products too small for a
+ * double still count.  Each experience's similarities are split into
+ * mantissas and exponents once, so products multiply mantissas and add
+ * exponents with no rescaling.  Scaling by powers of 2 is exact, so each score
+ * is exactly the plain score scaled by its exponent whenever that is a normal
+ * double, and combinations with equal plain scores have equal scaled scores.
+ * 
+ * @author woodser
+ */
+public class SubsetScorer {
+  
+  private static final int MIN_PARALLEL_ROWS = 2048;  // minimum rows scored by one parallel task
+  private static final int RESCALE_BITS = 500;        // binary orders a log space term may exceed its score by before the score is rescaled
+  private static final double LN2 = Math.log(2);
+
+  /**
+   * Scores every nonempty feature combination of the given query.
+   * 
+   * The returned scores are a scratch buffer of the query which is
+   * overwritten the next time the query is scored.  In log space each score
+   * is scaled by 2 to the power of its exponent in query.getExponents(), and
+   * toLogs() gets their natural logs.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @return double[] are the scores indexed by combination bitmask * number of outcomes + outcome code
+   */
+  public static double[] score(ExperienceStore store, EncodedQuery query) {
+    return score(store, query, null, null, null, null);
+  }
+  
+  /**
+   * Scores every nonempty feature combination of the given query, splitting the
+   * experiences across the threads of the given pool.
+   * 
+   * Each task sums its own range of experiences and partial sums are added
+   * together, so scores may differ from the serial scores in the last bits.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @param pool is the pool to score with
+   * @return double[] are the scores indexed by combination bitmask * number of outcomes + outcome code
+   */
+  public static double[] score(ExperienceStore store, EncodedQuery query, ForkJoinPool pool) {
+    return score(store, query, null, null, null, pool);
+  }
+  
+  /**
+   * Scores every nonempty feature combination of the given query using indices of the store.
+   * 
+   * Scores are unchanged by the indices.  The pruning index and contingency
+   * tables are only used with an inverted index covering every stored
+   * experience.  Experiences stored since the tables were last updated are
+   * counted from the store.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @param nominalIndex indexes the store's nominal columns, null to score nominal combinations in the pass over experiences
+   * @param tables count combinations of the store's nominal columns, null to count them from the inverted index
+   * @param pruningIndex indexes the store's continuous columns, null to visit every experience
+   * @param pool is the pool to score with, null to score serially
+   * @return double[] are the scores indexed by combination bitmask * number of outcomes + outcome code
+   */
+  public static double[] score(ExperienceStore store, EncodedQuery query, InvertedIndex nominalIndex, ContingencyTables tables, PruningIndex pruningIndex, ForkJoinPool pool) {
+    if (query.getStore() != store) throw new RuntimeException("Query is not encoded against the store");
+    if (query.getFeatureSize() > 30) throw new RuntimeException("Cannot score all combinations of " + query.getFeatureSize() + " features");
+    query.bindColumns();
+    boolean countNominal = nominalIndex != null && nominalIndex.size() == store.size();
+    
+    // mark experiences with a similar continuous feature
+    long[] candidates = null;
+    int indexed = 0;
+    if (countNominal && pruningIndex != null && pruningIndex.size() <= store.size()) {
+      int numWords = (pruningIndex.size() + 63) >>> 6;
+      if (query.candidates == null || query.candidates.length < numWords) query.candidates = new long[numWords];
+      if (pruningIndex.markCandidates(query, query.candidates)) {
+        candidates = query.candidates;
+        indexed = pruningIndex.size();
+      }
+    }
+    
+    // score serially or in parallel
+    double[] scores;
+    int[] exponents = null;
+    int numTasks = pool == null ? 1 : Math.min(pool.getParallelism(), store.size() / MIN_PARALLEL_ROWS);
+    if (numTasks < 2) {
+      if (query.isLogSpace()) exponents = getExponents(query, (1 << query.getFeatureSize()) * store.getOutcomeDictionary().size());
+      scores = score(store, query, countNominal, candidates, indexed, 0, store.size(), exponents, true);
+    } else {
+      ScoreTask task = new ScoreTask(store, query, null, countNominal, candidates, indexed, 0, store.size(), numTasks);
+      scores = pool.invoke(task);
+      exponents = task.exponents;
+    }
+    
+    // count combinations of nominal features from their tables or posting lists, which have exponents of 0
+    if (countNominal) scoreNominal(store, query, nominalIndex, tables != null && tables.size() <= store.size() ? tables : null, scores);
+    query.exponents = exponents;
+    return scores;
+  }
+  
+  /**
+   * Scores the given feature combinations of a query.
+   * 
+   * Each combination is multiplied out separately for each experience with a
+   * nonzero similarity in all of its features, so scoring costs time in the
+   * number of combinations rather than in every combination of the features.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @param combinations are the combinations to score
+   * @param pool is the pool to score with, null to score serially
+   * @return double[] are the scores indexed by combination position * number of outcomes + outcome code
+   */
+  public static double[] score(ExperienceStore store, EncodedQuery query, Combinations combinations, ForkJoinPool pool) {
+    if (query.getStore() != store) throw new RuntimeException("Query is not encoded against the store");
+    if (combinations.getNumInputs() != query.getFeatureSize()) throw new RuntimeException("Combinations must be of " + query.getFeatureSize() + " features");
+    query.bindColumns();
+    double[] scores;
+    int[] exponents = null;
+    int numTasks = pool == null ? 1 : Math.min(pool.getParallelism(), store.size() / MIN_PARALLEL_ROWS);
+    if (numTasks < 2) {
+      if (query.isLogSpace()) exponents = getExponents(query, combinations.size() * store.getOutcomeDictionary().size());
+      scores = score(store, query, combinations, 0, store.size(), exponents, true);
+    } else {
+      ScoreTask task = new ScoreTask(store, query, combinations, false, null, 0, 0, store.size(), numTasks);
+      scores = pool.invoke(task);
+      exponents = task.exponents;
+    }
+    query.exponents = exponents;
+    return scores;
+  }
+  
+  /**
+   * Gets the natural logs of a query's scores in log space.
+   * 
+   * Scores which are normal doubles once scaled are scaled before taking their
+   * logs, so they are exactly the logs of the plain scores.  Scores never added
+   * to are negative infinity.
+   * 
+   * @param query is the query scored in log space
+   * @param scores are the query's scores scaled by the binary exponents of query.getExponents()
+   * @return double[] are the natural logs of the scores
+   */
+  public static double[] toLogs(EncodedQuery query, double[] scores) {
+    int[] exponents = query.getExponents();
+    if (exponents == null) throw new RuntimeException("Query was not scored in log space");
+    double[] logScores = new double[scores.length];
+    for (int i = 0; i < scores.length; i++) {
+      if (scores[i] == 0) {
+        logScores[i] = Double.NEGATIVE_INFINITY;
+        continue;
+      }
+      int exponent = exponents[i] + Math.getExponent(scores[i]);
+      if (exponent >= Double.MIN_EXPONENT && exponent <= Double.MAX_EXPONENT) logScores[i] = Math.log(Math.scalb(scores[i], exponents[i]));
+      else logScores[i] = Math.log(Math.scalb(scores[i], exponents[i] - exponent)) + exponent * LN2;
+    }
+    return logScores;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  /**
+   * Scores the given combinations of a query against a range of experiences.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @param combinations are the combinations to score
+   * @param from is the first row to score (inclusive)
+   * @param to is the last row to score (exclusive)
+   * @param exponents receives the binary exponent of each score in log space, null to score plain sums
+   * @param reuse indicates if the query's scratch buffers should be used, so only one thread may score the query
+   * @return double[] are the scores indexed by combination position * number of outcomes + outcome code
+   */
+  private static double[] score(ExperienceStore store, EncodedQuery query, Combinations combinations, int from, int to, int[] exponents, boolean reuse) {
+    int numOutcomes = store.getOutcomeDictionary().size();
+    double[] scores;
+    double[] similarities;
+    int[] similarityExponents = null;
+    SimilarityBlock block;
+    if (reuse) {
+      if (query.scores == null || query.scores.length != combinations.size() * numOutcomes) query.scores = new double[combinations.size() * numOutcomes];
+      else Arrays.fill(query.scores, 0);
+      if (query.similarities == null) query.similarities = new double[query.getFeatureSize()];
+      if (exponents != null && query.similarityExponents == null) query.similarityExponents = new int[query.getFeatureSize()];
+      if (query.block == null) query.block = new SimilarityBlock(query.getFeatureSize());
+      scores = query.scores;
+      similarities = query.similarities;
+      if (exponents != null) similarityExponents = query.similarityExponents;
+      block = query.block;
+    } else {
+      scores = new double[combinations.size() * numOutcomes];
+      similarities = new double[query.getFeatureSize()];
+      if (exponents != null) similarityExponents = new int[query.getFeatureSize()];
+      block = new SimilarityBlock(query.getFeatureSize());
+    }
+    for (int start = from; start < to; start += SimilarityBlock.SIZE) {
+      block.compare(query, start, Math.min(to, start + SimilarityBlock.SIZE));
+      
+      // multiply out each combination across the block's rows from the same similarities
+      if (exponents == null) {
+        for (int idx = 0; idx < combinations.size(); idx++) block.addProducts(combinations.get(idx), scores, idx * numOutcomes);
+        continue;
+      }
+      
+      // multiply out each row's combinations in log space, in the same order as the block
+      for (int i = 0; i < block.size(); i++) {
+        long nonzero = block.getSimilarities(i, similarities);
+        if (nonzero == 0) continue;
+        int outcome = block.getOutcome(i);
+        double weight = block.getWeight(i);
+        normalize(nonzero, similarities, similarityExponents);
+        for (int idx = 0; idx < combinations.size(); idx++) {
+          long mask = combinations.get(idx);
+          if ((mask & ~nonzero) != 0) continue;
+          double product = 1;
+          int exponent = 0;
+          for (long bits = mask; bits != 0; bits &= bits - 1) {
+            int col = Long.numberOfTrailingZeros(bits);
+            product *= similarities[col];
+            exponent += similarityExponents[col];
+          }
+          addScaled(scores, exponents, idx * numOutcomes + outcome, product * weight, exponent);
+        }
+      }
+    }
+    return scores;
+  }
+  
+  /**
+   * Scores every nonempty feature combination of the given query against a range of experiences.
+   * 
+   * @param store is the store of experiences to score against
+   * @param query is the query encoded against the store
+   * @param skipNominal indicates if combinations of only nominal features are scored separately
+   * @param candidates is a bitmap of the indexed rows to score, null to score every row
+   * @param indexed is the number of rows covered by the bitmap, which are followed by rows that are always scored
+   * @param from is the first row to score (inclusive)
+   * @param to is the last row to score (exclusive)
+   * @param exponents receives the binary exponent of each score in log space, null to score plain sums
+   * @param reuse indicates if the query's scratch buffers should be used, so only one thread may score the query
+   * @return double[] are the scores indexed by combination bitmask * number of outcomes + outcome code
+   */
+  private static double[] score(ExperienceStore store, EncodedQuery query, boolean skipNominal, long[] candidates, int indexed, int from, int to, int[] exponents, boolean reuse) {
+    int featureSize = query.getFeatureSize();
+    int numOutcomes = store.getOutcomeDictionary().size();
+    NominalColumn outcomes = store.getOutcomes();
+    NominalColumn weights = store.getWeights();
+    double[] scores;
+    double[] similarities;
+    double[] products;
+    int[] similarityExponents = null;
+    int[] productExponents = null;
+    SimilarityBlock block;
+    if (reuse) {
+      if (query.scores == null || query.scores.length != (1 << featureSize) * numOutcomes) query.scores = new double[(1 << featureSize) * numOutcomes];
+      else Arrays.fill(query.scores, 0);
+      if (query.products == null) {
+        query.similarities = new double[featureSize];
+        query.products = new double[1 << featureSize];
+      }
+      if (exponents != null && query.productExponents == null) {
+        query.similarityExponents = new int[featureSize];
+        query.productExponents = new int[1 << featureSize];
+      }
+      if (query.block == null) query.block = new SimilarityBlock(featureSize);
+      scores = query.scores;
+      similarities = query.similarities;
+      products = query.products;
+      if (exponents != null) {
+        similarityExponents = query.similarityExponents;
+        productExponents = query.productExponents;
+      }
+      block = query.block;
+    } else {
+      scores = new double[(1 << featureSize) * numOutcomes];
+      similarities = new double[featureSize];
+      products = new double[1 << featureSize];
+      if (exponents != null) {
+        similarityExponents = new int[featureSize];
+        productExponents = new int[1 << featureSize];
+      }
+      block = new SimilarityBlock(featureSize);
+    }
+    products[0] = 1;
+    
+    // score candidate rows covered by the index in ascending order, comparing each separately
+    int end = from;
+    if (candidates != null) {
+      end = Math.max(from, Math.min(to, indexed));
+      for (int word = from >>> 6; (long) word << 6 < end; word++) {
+        long bits = candidates[word];
+        while (bits != 0) {
+          int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          if (row >= end) break;
+          if (row < from) continue;
+          long nonzero = query.getSimilarities(row, similarities);
+          double weight = weights == null ? 1 : weights.get(row);
+          if (exponents != null) scoreRowScaled(query, nonzero, outcomes.get(row), weight, numOutcomes, skipNominal, similarities, similarityExponents, products, productExponents, scores, exponents);
+          else scoreRow(query, nonzero, outcomes.get(row), weight, numOutcomes, skipNominal, similarities, products, scores);
+        }
+      }
+    }
+    
+    // score remaining rows, comparing a block of rows at a time
+    for (int start = end; start < to; start += SimilarityBlock.SIZE) {
+      block.compare(query, start, Math.min(to, start + SimilarityBlock.SIZE));
+      for (int i = 0; i < block.size(); i++) {
+        long nonzero = block.getSimilarities(i, similarities);
+        if (nonzero == 0) continue;
+        if (exponents != null) scoreRowScaled(query, nonzero, block.getOutcome(i), block.getWeight(i), numOutcomes, skipNominal, similarities, similarityExponents, products, productExponents, scores, exponents);
+        else scoreRow(query, nonzero, block.getOutcome(i), block.getWeight(i), numOutcomes, skipNominal, similarities, products, scores);
+      }
+    }
+    return scores;
+  }
+  
+  /**
+   * Adds a row's products times its weight to the scores of every combination of its nonzero similarities.
+   */
+  private static void scoreRow(EncodedQuery query, long nonzero, int outcome, double weight, int numOutcomes, boolean skipNominal, double[] similarities, double[] products, double[] scores) {
+    int continuous = (int) (nonzero & query.getContinuousMask());
+    if (nonzero == 0 || skipNominal && continuous == 0) return;
+    int nominal = (int) nonzero ^ continuous;
+    
+    // visit continuous subsets in ascending order so each subset's prefix is computed first
+    int subset = 0;
+    while ((subset = (subset - continuous) & continuous) != 0) {
+      int high = Integer.highestOneBit(subset);
+      products[subset] = products[subset ^ high] * similarities[Integer.numberOfTrailingZeros(high)];
+    }
+    
+    // add each continuous subset's product to it with every subset of the similar nominal features
+    int nominalSubset = 0;
+    do {
+      if (!skipNominal && nominalSubset != 0) scores[nominalSubset * numOutcomes + outcome] += weight;
+      subset = 0;
+      while ((subset = (subset - continuous) & continuous) != 0) scores[(nominalSubset | subset) * numOutcomes + outcome] += products[subset] * weight;
+    } while ((nominalSubset = (nominalSubset - nominal) & nominal) != 0);
+  }
+  
+  /**
+   * Adds a row's products times its weight to the scores of every combination
+   * of its nonzero similarities in log space.
+   * 
+   * Products multiply the mantissas of the similarities in the same order as
+   * scoreRow() and add their exponents, so they are the plain products scaled
+   * by their exponents.
+   */
+  private static void scoreRowScaled(EncodedQuery query, long nonzero, int outcome, double weight, int numOutcomes, boolean skipNominal, double[] similarities, int[] similarityExponents, double[] products, int[] productExponents, double[] scores, int[] exponents) {
+    int continuous = (int) (nonzero & query.getContinuousMask());
+    if (nonzero == 0 || skipNominal && continuous == 0) return;
+    int nominal = (int) nonzero ^ continuous;
+    normalize(continuous, similarities, similarityExponents);
+    
+    // visit continuous subsets in ascending order so each subset's prefix is computed first
+    int subset = 0;
+    while ((subset = (subset - continuous) & continuous) != 0) {
+      int high = Integer.highestOneBit(subset);
+      int col = Integer.numberOfTrailingZeros(high);
+      products[subset] = products[subset ^ high] * similarities[col];
+      productExponents[subset] = productExponents[subset ^ high] + similarityExponents[col];
+    }
+    
+    // add each continuous subset's product to it with every subset of the similar nominal features
+    int nominalSubset = 0;
+    do {
+      if (!skipNominal && nominalSubset != 0) addScaled(scores, exponents, nominalSubset * numOutcomes + outcome, weight, 0);
+      subset = 0;
+      while ((subset = (subset - continuous) & continuous) != 0) addScaled(scores, exponents, (nominalSubset | subset) * numOutcomes + outcome, products[subset] * weight, productExponents[subset]);
+    } while ((nominalSubset = (nominalSubset - nominal) & nominal) != 0);
+  }
+  
+  /**
+   * Splits nonzero similarities into mantissas in [1, 2) and binary exponents.
+   * 
+   * Products of at most 63 mantissas stay below 2^63, so they never need
+   * rescaling while their exponents are summed.
+   * 
+   * @param nonzero is a bitmask of the similarities to split
+   * @param similarities are the similarities, replaced by their mantissas
+   * @param exponents receives the binary exponent of each similarity
+   */
+  private static void normalize(long nonzero, double[] similarities, int[] exponents) {
+    for (long bits = nonzero; bits != 0; bits &= bits - 1) {
+      int col = Long.numberOfTrailingZeros(bits);
+      double similarity = similarities[col];
+      int exponent = Math.getExponent(similarity);
+      if (exponent < Double.MIN_EXPONENT) exponent = Math.getExponent(similarity * 0x1p64) - 64;
+      similarities[col] = Math.scalb(similarity, -exponent);
+      exponents[col] = exponent;
+    }
+  }
+  
+  /**
+   * Adds a term scaled by a binary exponent to a score scaled by a binary exponent.
+   * 
+   * Terms and scores are at least 1 once scaled, the products of mantissas
+   * and weights they are.  The term is added at the score's exponent, so
+   * terms more than 1023 binary orders below the score are too small to change
+   * it and are dropped as from a plain sum.  Only the score's first term or a
+   * term larger by more than RESCALE_BITS binary orders moves the score to the
+   * term's exponent.  Scaling by powers of 2 is exact, so the score is the
+   * plain sum scaled by its exponent whenever the plain sum is a normal double.
+   * 
+   * @param scores are the scores to add to
+   * @param exponents are the binary exponents of the scores
+   * @param cell is the index of the score to add to
+   * @param term is the term to add, at least 1
+   * @param exponent is the binary exponent of the term
+   */
+  private static void addScaled(double[] scores, int[] exponents, int cell, double term, int exponent) {
+    int shift = exponent - exponents[cell];
+    if (shift > RESCALE_BITS || scores[cell] == 0) {
+      scores[cell] = Math.scalb(scores[cell], -shift) + term;
+      exponents[cell] = exponent;
+    } else {
+      scores[cell] += term * Double.longBitsToDouble((long) Math.max(shift + Double.MAX_EXPONENT, 0) << 52);
+    }
+  }
+  
+  /**
+   * Gets the query's scratch exponents of the given length, zeroed.
+   */
+  private static int[] getExponents(EncodedQuery query, int length) {
+    if (query.exponents == null || query.exponents.length != length) query.exponents = new int[length];
+    else Arrays.fill(query.exponents, 0);
+    return query.exponents;
+  }
+  
+  /**
+   * Scores combinations of only nominal features by counting the experiences equal to the query in all of them.
+   * 
+   * Counts are looked up in contingency tables if given and covering every
+   * combination, and experiences stored since the tables were last updated
+   * are compared to the query directly.  Otherwise each experience's set of
+   * equal features among the query's indexed values is marked from the posting
+   * lists.  Experiences are tallied by their sets, then tallies are summed over
+   * supersets so each combination counts every experience equal in at least
+   * its features.
+   */
+  private static void scoreNominal(ExperienceStore store, EncodedQuery query, InvertedIndex index, ContingencyTables tables, double[] scores) {
+    int numOutcomes = store.getOutcomeDictionary().size();
+    
+    // find the query's nominal values held by stored experiences
+    int[] cols = new int[query.getFeatureSize()];
+    int numCols = 0;
+    for (int col = 0; col < query.getFeatureSize(); col++) {
+      if ((query.getContinuousMask() & 1L << col) == 0 && index.getCount(col, query.getCode(col)) > 0) cols[numCols++] = col;
+    }
+    if (numCols == 0) return;
+    
+    // a single value's outcome counts are kept by the index
+    for (int i = 0; i < numCols; i++) {
+      for (int outcome = 0; outcome < numOutcomes; outcome++) scores[(1 << cols[i]) * numOutcomes + outcome] = index.getOutcomeCount(cols[i], query.getCode(cols[i]), outcome);
+    }
+    if (numCols == 1) return;
+    int size = store.size();
+    int from = 0;
+    if (tables != null && tables.fill(query, cols, numCols, scores, numOutcomes)) {
+      if (tables.size() == size) return;
+      from = tables.size();
+    }
+    
+    // mark the values each experience holds, comparing experiences the tables do not cover directly
+    if (query.rowMasks == null || query.rowMasks.length < size) query.rowMasks = new int[Math.max(size, size + (size >> 3))];
+    int[] rowMasks = query.rowMasks;
+    Arrays.fill(rowMasks, from, size, 0);
+    if (from == 0) {
+      for (int i = 0; i < numCols; i++) {
+        int count = index.getCount(cols[i], query.getCode(cols[i]));
+        int[] rows = index.getRows(cols[i], query.getCode(cols[i]));
+        for (int j = 0; j < count; j++) rowMasks[rows[j]] |= 1 << i;
+      }
+    } else {
+      for (int i = 0; i < numCols; i++) {
+        NominalColumn column = store.getNominal(cols[i]);
+        int code = query.getCode(cols[i]);
+        for (int row = from; row < size; row++) {
+          if (column.get(row) == code) rowMasks[row] |= 1 << i;
+        }
+      }
+    }
+    
+    // tally experiences by the values they hold and sum tallies over supersets
+    long[] counts = new long[(1 << numCols) * numOutcomes];
+    NominalColumn outcomes = store.getOutcomes();
+    NominalColumn weights = store.getWeights();
+    for (int row = from; row < size; row++) {
+      if (rowMasks[row] != 0) counts[rowMasks[row] * numOutcomes + outcomes.get(row)] += weights == null ? 1 : weights.get(row);
+    }
+    for (int i = 0; i < numCols; i++) {
+      for (int mask = 0; mask < 1 << numCols; mask++) {
+        if ((mask & 1 << i) != 0) continue;
+        for (int outcome = 0; outcome < numOutcomes; outcome++) counts[mask * numOutcomes + outcome] += counts[(mask | 1 << i) * numOutcomes + outcome];
+      }
+    }
+    
+    // write the counts to the combinations of the corresponding columns, or add them to the tables' counts
+    int[] combinations = new int[1 << numCols];
+    for (int mask = 1; mask < 1 << numCols; mask++) {
+      combinations[mask] = combinations[mask & (mask - 1)] | 1 << cols[Integer.numberOfTrailingZeros(mask)];
+      if ((mask & (mask - 1)) == 0) continue;
+      for (int outcome = 0; outcome < numOutcomes; outcome++) {
+        int cell = combinations[mask] * numOutcomes + outcome;
+        scores[cell] = (from == 0 ? 0 : scores[cell]) + counts[mask * numOutcomes + outcome];
+      }
+    }
+  }
+  
+  /**
+   * Scores a range of experiences by splitting it into tasks and adding their partial sums.
+   */
+  private static class ScoreTask extends RecursiveTask<double[]> {
+    
+    private static final long serialVersionUID = -6391286950412711453L;
+    private ExperienceStore store;
+    private EncodedQuery query;
+    private Combinations combinations;
+    private boolean skipNominal;
+    private long[] candidates;
+    private int indexed;
+    private int from;
+    private int to;
+    private int numTasks;
+    private int[] exponents;  // binary exponents of the scores in log space, set once computed
+    
+    ScoreTask(ExperienceStore store, EncodedQuery query, Combinations combinations, boolean skipNominal, long[] candidates, int indexed, int from, int to, int numTasks) {
+      this.store = store;
+      this.query = query;
+      this.combinations = combinations;
+      this.skipNominal = skipNominal;
+      this.candidates = candidates;
+      this.indexed = indexed;
+      this.from = from;
+      this.to = to;
+      this.numTasks = numTasks;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (numTasks < 2) {
+        int numOutcomes = store.getOutcomeDictionary().size();
+        if (query.isLogSpace()) exponents = new int[(combinations != null ? combinations.size() : 1 << query.getFeatureSize()) * numOutcomes];
+        return combinations != null ? score(store, query, combinations, from, to, exponents, false) : score(store, query, skipNominal, candidates, indexed, from, to, exponents, false);
+      }
+      int leftTasks = numTasks / 2;
+      int mid = from + (int) ((long) (to - from) * leftTasks / numTasks);
+      ScoreTask left = new ScoreTask(store, query, combinations, skipNominal, candidates, indexed, from, mid, leftTasks);
+      ScoreTask right = new ScoreTask(store, query, combinations, skipNominal, candidates, indexed, mid, to, numTasks - leftTasks);
+      left.fork();
+      double[] rightScores = right.compute();
+      double[] scores = left.join();
+      exponents = left.exponents;
+      if (exponents != null) {
+        for (int i = 0; i < scores.length; i++) {
+          if (rightScores[i] != 0) addScaled(scores, exponents, i, rightScores[i], right.exponents[i]);
+        }
+      } else {
+        for (int i = 0; i < scores.length; i++) scores[i] += rightScores[i];
+      }
+      return scores;
+    }
+  }
+}
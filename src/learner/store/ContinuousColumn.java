@@ -0,0 +1,28 @@
+package learner.store;
+
+/**
+ * Column of continuous values indexed by row.
+ * 
+ * @author woodser
+ */
+public abstract class ContinuousColumn {
+
+  /**
+   * Gets the value at the given row.
+   * 
+   * @param row is the row to get the value of
+   * @return double is the value at the row
+   */
+  public abstract double get(int row);
+  
+  /**
+   * Copies the values of consecutive rows.
+   * 
+   * @param from is the first row to copy (inclusive)
+   * @param to is the last row to copy (exclusive)
+   * @param values receives the values starting at index 0
+   */
+  public void get(int from, int to, double[] values) {
+    for (int row = from; row < to; row++) values[row - from] = get(row);
+  }
+}
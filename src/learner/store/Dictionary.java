@@ -0,0 +1,80 @@
+package learner.store;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes values to dense integer codes in order of first appearance.
+ * 
+ * @author woodser
+ */
+public class Dictionary<T> implements Serializable {
+
+  private static final long serialVersionUID = -3520949512725335611L;
+  private Map<T, Integer> codes;
+  private List<T> values;
+  
+  public Dictionary() {
+    this.codes = new HashMap<T, Integer>();
+    this.values = new ArrayList<T>();
+  }
+  
+  /**
+   * Constructs a copy of a dictionary.
+   * 
+   * @param dictionary is the dictionary to copy
+   */
+  public Dictionary(Dictionary<T> dictionary) {
+    this.codes = new HashMap<T, Integer>(dictionary.codes);
+    this.values = new ArrayList<T>(dictionary.values);
+  }
+  
+  /**
+   * Gets the code of the given value, assigning a new code if the value is not yet encoded.
+   * 
+   * @param value is the value to encode
+   * @return int is the code of the value
+   */
+  public int encode(T value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+  
+  /**
+   * Gets the code of the given value without assigning a new code.
+   * 
+   * @param value is the value to look up
+   * @return int is the code of the value or -1 if the value is not encoded
+   */
+  public int lookup(T value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+  
+  /**
+   * Gets the value of the given code.
+   * 
+   * @param code is the code to decode
+   * @return T is the value of the code
+   */
+  public T decode(int code) {
+    return values.get(code);
+  }
+  
+  /**
+   * Gets the number of encoded values.
+   * 
+   * @return int is the number of encoded values
+   */
+  public int size() {
+    return values.size();
+  }
+}
@@ -0,0 +1,492 @@
+package learner.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import learner.Experience;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.FeatureType;
+import learner.features.NominalFeature;
+
+/**
+ * Stores experiences column by column in primitive columns.
+ * 
+ * Continuous columns hold doubles, nominal columns hold int codes into a
+ * per-column dictionary, and outcomes are int codes into an outcome
+ * dictionary.  Column types are fixed by the first stored experience.
+ * 
+ * Columns may be named, e.g. by a model recording its feature names.
+ * 
+ * Columns live on the heap or in a mapped store file.  A mapped store is
+ * copied to the heap the first time an experience is added to it.
+ * 
+ * A snapshot of a store shares its rows, which are never rewritten, so it
+ * may be read by other threads while experiences are added to the store.
+ * 
+ * A deduplicated store merges identical experiences into one row weighted by
+ * their number.  Each row of an unweighted store is one experience.
+ * 
+ * @author woodser
+ */
+public class ExperienceStore implements Serializable {
+  
+  private static final long serialVersionUID = 6720593440861390470L;
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MAX_SIGNIFICANT_DIGITS = 17;  // significant digits which round-trip every double
+  
+  private transient int size;                             // number of stored experiences
+  private transient int capacity;                         // number of rows the columns can hold
+  private transient FeatureType[] types;                  // type of each column
+  private transient String[] names;                       // name of each column, null if unnamed
+  private transient ContinuousColumn[] continuous;        // continuous columns, null for nominal columns
+  private transient NominalColumn[] nominal;              // nominal columns, null for continuous columns
+  private transient List<Dictionary<String>> dictionaries; // nominal column dictionaries, null for continuous columns
+  private transient NominalColumn outcomes;               // outcome code of each experience
+  private transient NominalColumn weights;                // number of experiences of each row, null if each row is one experience
+  private transient Dictionary<Object> outcomeDictionary; // outcome dictionary
+  
+  /**
+   * Constructs an empty store.
+   */
+  public ExperienceStore() {
+    this.capacity = INITIAL_CAPACITY;
+    this.outcomes = new HeapNominalColumn(new int[capacity]);
+    this.outcomeDictionary = new Dictionary<Object>();
+  }
+  
+  /**
+   * Constructs a store from existing columns.
+   * 
+   * @param types are the column types, null if the store has no columns
+   * @param names are the column names, null if unnamed
+   * @param continuous are the continuous columns, null for nominal columns
+   * @param nominal are the nominal columns, null for continuous columns
+   * @param dictionaries are the nominal column dictionaries, null for continuous columns
+   * @param outcomes are the outcome codes
+   * @param weights are the number of experiences of each row, null if each row is one experience
+   * @param outcomeDictionary is the outcome dictionary
+   * @param size is the number of stored rows
+   * @param capacity is the number of rows the columns can hold
+   */
+  ExperienceStore(FeatureType[] types, String[] names, ContinuousColumn[] continuous, NominalColumn[] nominal, List<Dictionary<String>> dictionaries, NominalColumn outcomes, NominalColumn weights, Dictionary<Object> outcomeDictionary, int size, int capacity) {
+    init(types, names, continuous, nominal, dictionaries, outcomes, weights, outcomeDictionary, size, capacity);
+  }
+  
+  /**
+   * Adds an experience to the store.
+   * 
+   * @param features are the features of the experience
+   * @param outcome is the outcome of the experience
+   */
+  public void add(List<Feature> features, Object outcome) {
+    if (types == null) initColumns(features);
+    else if (types.length != features.size()) throw new RuntimeException("Features must be uniform size");
+    for (int col = 0; col < types.length; col++) {
+      Feature feature = features.get(col);
+      if (FeatureType.of(feature) != types[col]) throw new RuntimeException("Cannot compare different features: " + feature.getClass());
+    }
+    if (size == capacity) resize(Math.max(INITIAL_CAPACITY, size + (size >> 1)));
+    for (int col = 0; col < types.length; col++) {
+      Feature feature = features.get(col);
+      switch (types[col]) {
+        case CONTINUOUS:
+          ((HeapContinuousColumn) continuous[col]).set(size, ((ContinuousFeature) feature).getVal());
+          break;
+        case NOMINAL:
+          ((HeapNominalColumn) nominal[col]).set(size, dictionaries.get(col).encode(((NominalFeature) feature).getVal()));
+          break;
+      }
+    }
+    ((HeapNominalColumn) outcomes).set(size, outcomeDictionary.encode(outcome));
+    if (weights != null) ((HeapNominalColumn) weights).set(size, 1);
+    size++;
+  }
+  
+  /**
+   * Gets the experience stored at the given row.
+   * 
+   * A weighted row stands for getWeights().get(row) identical experiences.
+   * 
+   * @param row is the row of the experience
+   * @return Experience is a new experience with the stored features and outcome
+   */
+  public Experience getExperience(int row) {
+    if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + size);
+    List<Feature> features = new ArrayList<Feature>(types.length);
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] == FeatureType.CONTINUOUS) features.add(new ContinuousFeature(continuous[col].get(row)));
+      else features.add(new NominalFeature(dictionaries.get(col).decode(nominal[col].get(row))));
+    }
+    return new Experience(features, outcomeDictionary.decode(outcomes.get(row)));
+  }
+  
+  /**
+   * Gets the number of stored rows, which is the number of stored experiences unless the store is weighted.
+   * 
+   * @return int is the number of stored rows
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Indicates if the store has no experiences.
+   * 
+   * @return true if the store has no experiences, false otherwise
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  /**
+   * Indicates if the store's columns are mapped from a file rather than held on the heap.
+   * 
+   * @return true if the columns are mapped, false otherwise
+   */
+  public boolean isMapped() {
+    return outcomes instanceof MappedNominalColumn;
+  }
+  
+  /**
+   * Gets the number of feature columns.
+   * 
+   * @return int is the number of feature columns or 0 if no experience has been stored
+   */
+  public int getFeatureSize() {
+    return types == null ? 0 : types.length;
+  }
+  
+  /**
+   * Gets the type of the given column.
+   * 
+   * @param col is the column to get the type of
+   * @return FeatureType is the type of the column
+   */
+  public FeatureType getType(int col) {
+    return types[col];
+  }
+  
+  /**
+   * Gets the column names.
+   * 
+   * @return String[] are the names of the columns in order, null if the columns are unnamed
+   */
+  public String[] getNames() {
+    return names == null ? null : names.clone();
+  }
+  
+  /**
+   * Names the columns.
+   * 
+   * @param names are the names of the columns in order, null to unname the columns
+   */
+  public void setNames(String[] names) {
+    if (names != null && names.length != getFeatureSize()) throw new RuntimeException("Expected " + getFeatureSize() + " column names but got " + names.length);
+    this.names = names == null ? null : names.clone();
+  }
+  
+  /**
+   * Gets a continuous column.  Only the first size() rows are valid.
+   * 
+   * @param col is the continuous column to get
+   * @return ContinuousColumn is the column
+   */
+  public ContinuousColumn getContinuous(int col) {
+    return continuous[col];
+  }
+  
+  /**
+   * Gets a nominal column.  Only the first size() rows are valid.
+   * 
+   * @param col is the nominal column to get
+   * @return NominalColumn are the dictionary codes of the column
+   */
+  public NominalColumn getNominal(int col) {
+    return nominal[col];
+  }
+  
+  /**
+   * Gets the dictionary of a nominal column.
+   * 
+   * @param col is the nominal column to get the dictionary of
+   * @return Dictionary<String> is the dictionary of the column
+   */
+  public Dictionary<String> getDictionary(int col) {
+    return dictionaries.get(col);
+  }
+  
+  /**
+   * Gets the outcome codes.  Only the first size() rows are valid.
+   * 
+   * @return NominalColumn are the outcome codes of the stored experiences
+   */
+  public NominalColumn getOutcomes() {
+    return outcomes;
+  }
+  
+  /**
+   * Indicates if rows are weighted by their number of experiences.
+   * 
+   * @return true if the store is deduplicated, false if each row is one experience
+   */
+  public boolean isWeighted() {
+    return weights != null;
+  }
+  
+  /**
+   * Gets the number of experiences of each row.  Only the first size() rows are valid.
+   * 
+   * @return NominalColumn are the weights of the stored rows, null if each row is one experience
+   */
+  public NominalColumn getWeights() {
+    return weights;
+  }
+  
+  /**
+   * Gets the outcome dictionary.
+   * 
+   * @return Dictionary<Object> is the dictionary of outcomes
+   */
+  public Dictionary<Object> getOutcomeDictionary() {
+    return outcomeDictionary;
+  }
+  
+  /**
+   * Gets a snapshot of the store's current experiences which is unaffected by
+   * experiences added to the store afterwards.
+   * 
+   * The snapshot shares the store's rows and copies its dictionaries.  It has
+   * no spare capacity, so adding to the snapshot copies its rows first.
+   * 
+   * @return ExperienceStore is a snapshot of the store
+   */
+  public ExperienceStore snapshot() {
+    if (types == null) {
+      ExperienceStore snapshot = new ExperienceStore();
+      snapshot.outcomeDictionary = new Dictionary<Object>(outcomeDictionary);
+      return snapshot;
+    }
+    ContinuousColumn[] continuousSnapshots = new ContinuousColumn[types.length];
+    NominalColumn[] nominalSnapshots = new NominalColumn[types.length];
+    List<Dictionary<String>> dictionarySnapshots = new ArrayList<Dictionary<String>>(types.length);
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] == FeatureType.CONTINUOUS) {
+        continuousSnapshots[col] = snapshot(continuous[col]);
+        dictionarySnapshots.add(null);
+      } else {
+        nominalSnapshots[col] = snapshot(nominal[col]);
+        dictionarySnapshots.add(new Dictionary<String>(dictionaries.get(col)));
+      }
+    }
+    return new ExperienceStore(types, names == null ? null : names.clone(), continuousSnapshots, nominalSnapshots, dictionarySnapshots, snapshot(outcomes), weights == null ? null : snapshot(weights), new Dictionary<Object>(outcomeDictionary), size, size);
+  }
+  
+  /**
+   * Gets a copy of the store with identical experiences merged into one row
+   * weighted by their number.
+   * 
+   * Rows are kept in order of their first experience.  Continuous values may be
+   * rounded to a number of significant digits first, so nearly identical
+   * experiences merge as well at the cost of the precision of their values.
+   * Without rounding, every experience is kept exactly.  Deduplicating a
+   * weighted store merges its rows' weights.
+   * 
+   * @param significantDigits are the significant digits to round continuous values to, 0 to not round
+   * @return ExperienceStore is a weighted copy of the store on the heap
+   */
+  public ExperienceStore deduplicate(int significantDigits) {
+    if (significantDigits < 0 || significantDigits > MAX_SIGNIFICANT_DIGITS) throw new RuntimeException("Significant digits must be between 0 and " + MAX_SIGNIFICANT_DIGITS + ": " + significantDigits);
+    if (types == null) return snapshot();
+    
+    // read the rows, rounding continuous values
+    double[][] values = new double[types.length][];
+    int[][] codes = new int[types.length][];
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] == FeatureType.CONTINUOUS) {
+        values[col] = new double[size];
+        for (int row = 0; row < size; row++) values[col][row] = round(continuous[col].get(row), significantDigits);
+      } else {
+        codes[col] = new int[size];
+        nominal[col].get(0, size, codes[col]);
+      }
+    }
+    int[] outcomeCodes = new int[size];
+    outcomes.get(0, size, outcomeCodes);
+    
+    // merge each row into the first equal row, tracking distinct rows in an open addressing table
+    int[] distinct = new int[size];  // distinct row of each merged row
+    int[] counts = new int[size];    // number of experiences of each distinct row
+    int numDistinct = 0;
+    int[] table = new int[Integer.highestOneBit(Math.max(1, size)) * 4];  // distinct row + 1 of each slot, 0 if empty
+    int mask = table.length - 1;
+    for (int row = 0; row < size; row++) {
+      int slot = hash(values, codes, outcomeCodes, row) & mask;
+      while (table[slot] != 0 && !equals(values, codes, outcomeCodes, table[slot] - 1, row)) slot = slot + 1 & mask;
+      if (table[slot] == 0) {
+        table[slot] = row + 1;
+        distinct[numDistinct++] = row;
+      }
+      counts[table[slot] - 1] += weights == null ? 1 : weights.get(row);
+    }
+    
+    // copy the distinct rows with their weights
+    ContinuousColumn[] continuousCopies = new ContinuousColumn[types.length];
+    NominalColumn[] nominalCopies = new NominalColumn[types.length];
+    List<Dictionary<String>> dictionaryCopies = new ArrayList<Dictionary<String>>(types.length);
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] == FeatureType.CONTINUOUS) {
+        double[] copy = new double[numDistinct];
+        for (int i = 0; i < numDistinct; i++) copy[i] = values[col][distinct[i]];
+        continuousCopies[col] = new HeapContinuousColumn(copy);
+        dictionaryCopies.add(null);
+      } else {
+        int[] copy = new int[numDistinct];
+        for (int i = 0; i < numDistinct; i++) copy[i] = codes[col][distinct[i]];
+        nominalCopies[col] = new HeapNominalColumn(copy);
+        dictionaryCopies.add(new Dictionary<String>(dictionaries.get(col)));
+      }
+    }
+    int[] outcomeCopy = new int[numDistinct];
+    int[] weightCopy = new int[numDistinct];
+    for (int i = 0; i < numDistinct; i++) {
+      outcomeCopy[i] = outcomeCodes[distinct[i]];
+      weightCopy[i] = counts[distinct[i]];
+    }
+    return new ExperienceStore(types, names == null ? null : names.clone(), continuousCopies, nominalCopies, dictionaryCopies, new HeapNominalColumn(outcomeCopy), new HeapNominalColumn(weightCopy), new Dictionary<Object>(outcomeDictionary), numDistinct, numDistinct);
+  }
+  
+  /**
+   * Releases unused heap capacity.
+   */
+  public void trimToSize() {
+    if (!isMapped() && capacity > size) resize(size);
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private void init(FeatureType[] types, String[] names, ContinuousColumn[] continuous, NominalColumn[] nominal, List<Dictionary<String>> dictionaries, NominalColumn outcomes, NominalColumn weights, Dictionary<Object> outcomeDictionary, int size, int capacity) {
+    this.types = types;
+    this.names = names;
+    this.continuous = continuous;
+    this.nominal = nominal;
+    this.dictionaries = dictionaries;
+    this.outcomes = outcomes;
+    this.weights = weights;
+    this.outcomeDictionary = outcomeDictionary;
+    this.size = size;
+    this.capacity = capacity;
+  }
+  
+  private void initColumns(List<Feature> features) {
+    if (features.isEmpty()) throw new RuntimeException("Experience must have at least one feature");
+    types = new FeatureType[features.size()];
+    continuous = new ContinuousColumn[types.length];
+    nominal = new NominalColumn[types.length];
+    dictionaries = new ArrayList<Dictionary<String>>(types.length);
+    for (int col = 0; col < types.length; col++) {
+      types[col] = FeatureType.of(features.get(col));
+      if (types[col] == FeatureType.CONTINUOUS) {
+        continuous[col] = new HeapContinuousColumn(new double[capacity]);
+        dictionaries.add(null);
+      } else {
+        nominal[col] = new HeapNominalColumn(new int[capacity]);
+        dictionaries.add(new Dictionary<String>());
+      }
+    }
+  }
+  
+  /**
+   * Resizes the heap columns, copying mapped columns to the heap.
+   * 
+   * @param newCapacity is the number of rows the columns can hold
+   */
+  private void resize(int newCapacity) {
+    outcomes = resize(outcomes, newCapacity);
+    if (weights != null) weights = resize(weights, newCapacity);
+    if (types != null) {
+      for (int col = 0; col < types.length; col++) {
+        if (continuous[col] != null) continuous[col] = resize(continuous[col], newCapacity);
+        else nominal[col] = resize(nominal[col], newCapacity);
+      }
+    }
+    capacity = newCapacity;
+  }
+  
+  /**
+   * Rounds a value to a number of significant digits, leaving 0, NaN and infinities unchanged.
+   */
+  private static double round(double value, int significantDigits) {
+    if (significantDigits == 0 || value == 0 || Double.isNaN(value) || Double.isInfinite(value)) return value;
+    BigDecimal rounded = new BigDecimal(value).round(new MathContext(significantDigits, RoundingMode.HALF_EVEN));
+    return rounded.doubleValue();
+  }
+  
+  /**
+   * Hashes the values, codes and outcome of a row.
+   */
+  private static int hash(double[][] values, int[][] codes, int[] outcomes, int row) {
+    long hash = outcomes[row];
+    for (int col = 0; col < values.length; col++) {
+      long bits = values[col] != null ? Double.doubleToLongBits(values[col][row]) : codes[col][row];
+      hash = (hash ^ bits) * 0x9E3779B97F4A7C15L;
+    }
+    return (int) (hash ^ hash >>> 32);
+  }
+  
+  /**
+   * Indicates if two rows have equal values, codes and outcomes.
+   */
+  private static boolean equals(double[][] values, int[][] codes, int[] outcomes, int row1, int row2) {
+    if (outcomes[row1] != outcomes[row2]) return false;
+    for (int col = 0; col < values.length; col++) {
+      if (values[col] != null ? Double.doubleToLongBits(values[col][row1]) != Double.doubleToLongBits(values[col][row2]) : codes[col][row1] != codes[col][row2]) return false;
+    }
+    return true;
+  }
+  
+  private static ContinuousColumn snapshot(ContinuousColumn column) {
+    return column instanceof HeapContinuousColumn ? ((HeapContinuousColumn) column).snapshot() : column;
+  }
+  
+  private static NominalColumn snapshot(NominalColumn column) {
+    return column instanceof HeapNominalColumn ? ((HeapNominalColumn) column).snapshot() : column;
+  }
+  
+  private ContinuousColumn resize(ContinuousColumn column, int newCapacity) {
+    if (!(column instanceof HeapContinuousColumn)) return new HeapContinuousColumn(column, size, newCapacity);
+    ((HeapContinuousColumn) column).resize(newCapacity);
+    return column;
+  }
+  
+  private NominalColumn resize(NominalColumn column, int newCapacity) {
+    if (!(column instanceof HeapNominalColumn)) return new HeapNominalColumn(column, size, newCapacity);
+    ((HeapNominalColumn) column).resize(newCapacity);
+    return column;
+  }
+  
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StoreFormat.write(this, bytes);
+    out.writeInt(bytes.size());
+    bytes.writeTo(out);
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    ExperienceStore store = StoreFormat.read(new ByteArrayInputStream(bytes));
+    init(store.types, store.names, store.continuous, store.nominal, store.dictionaries, store.outcomes, store.weights, store.outcomeDictionary, store.size, store.capacity);
+  }
+}
@@ -0,0 +1,48 @@
+package learner.store;
+
+import java.util.Arrays;
+
+/**
+ * Continuous column backed by a growable double[].
+ * 
+ * @author woodser
+ */
+final class HeapContinuousColumn extends ContinuousColumn {
+  
+  private double[] values;
+  
+  HeapContinuousColumn(double[] values) {
+    this.values = values;
+  }
+  
+  HeapContinuousColumn(ContinuousColumn column, int size, int capacity) {
+    this.values = new double[capacity];
+    for (int row = 0; row < size; row++) values[row] = column.get(row);
+  }
+
+  @Override
+  public double get(int row) {
+    return values[row];
+  }
+  
+  @Override
+  public void get(int from, int to, double[] values) {
+    System.arraycopy(this.values, from, values, 0, to - from);
+  }
+  
+  void set(int row, double value) {
+    values[row] = value;
+  }
+  
+  /**
+   * Gets a column sharing this column's rows, which this column only writes
+   * past the rows already set.
+   */
+  HeapContinuousColumn snapshot() {
+    return new HeapContinuousColumn(values);
+  }
+  
+  void resize(int capacity) {
+    values = Arrays.copyOf(values, capacity);
+  }
+}
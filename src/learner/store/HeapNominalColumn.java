@@ -0,0 +1,48 @@
+package learner.store;
+
+import java.util.Arrays;
+
+/**
+ * Nominal column backed by a growable int[] of codes.
+ * 
+ * @author woodser
+ */
+final class HeapNominalColumn extends NominalColumn {
+  
+  private int[] codes;
+  
+  HeapNominalColumn(int[] codes) {
+    this.codes = codes;
+  }
+  
+  HeapNominalColumn(NominalColumn column, int size, int capacity) {
+    this.codes = new int[capacity];
+    for (int row = 0; row < size; row++) codes[row] = column.get(row);
+  }
+
+  @Override
+  public int get(int row) {
+    return codes[row];
+  }
+  
+  @Override
+  public void get(int from, int to, int[] codes) {
+    System.arraycopy(this.codes, from, codes, 0, to - from);
+  }
+  
+  void set(int row, int code) {
+    codes[row] = code;
+  }
+  
+  /**
+   * Gets a column sharing this column's rows, which this column only writes
+   * past the rows already set.
+   */
+  HeapNominalColumn snapshot() {
+    return new HeapNominalColumn(codes);
+  }
+  
+  void resize(int capacity) {
+    codes = Arrays.copyOf(codes, capacity);
+  }
+}
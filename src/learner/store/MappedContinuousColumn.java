@@ -0,0 +1,32 @@
+package learner.store;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Read-only continuous column backed by a mapped region of a store file.
+ * 
+ * @author woodser
+ */
+final class MappedContinuousColumn extends ContinuousColumn {
+  
+  private ByteBuffer buffer;
+  private DoubleBuffer doubles;  // view of the buffer as doubles for bulk reads
+  
+  MappedContinuousColumn(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.doubles = buffer.asDoubleBuffer();
+  }
+
+  @Override
+  public double get(int row) {
+    return buffer.getDouble(row << 3);
+  }
+  
+  @Override
+  public void get(int from, int to, double[] values) {
+    DoubleBuffer view = doubles.duplicate();  // own position so concurrent reads do not interfere
+    view.position(from);
+    view.get(values, 0, to - from);
+  }
+}
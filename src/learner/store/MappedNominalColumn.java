@@ -0,0 +1,30 @@
+package learner.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only nominal column backed by a mapped region of a store file.
+ * 
+ * Codes are 1, 2 or 4 bytes wide depending on the size of their dictionary.
+ * 
+ * @author woodser
+ */
+final class MappedNominalColumn extends NominalColumn {
+  
+  private ByteBuffer buffer;
+  private int width;
+  
+  MappedNominalColumn(ByteBuffer buffer, int width) {
+    this.buffer = buffer;
+    this.width = width;
+  }
+
+  @Override
+  public int get(int row) {
+    switch (width) {
+      case 1: return buffer.get(row) & 0xFF;
+      case 2: return buffer.getShort(row << 1) & 0xFFFF;
+      default: return buffer.getInt(row << 2);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package learner.store;
+
+/**
+ * Column of dictionary codes indexed by row.
+ * 
+ * @author woodser
+ */
+public abstract class NominalColumn {
+
+  /**
+   * Gets the code at the given row.
+   * 
+   * @param row is the row to get the code of
+   * @return int is the code at the row
+   */
+  public abstract int get(int row);
+  
+  /**
+   * Copies the codes of consecutive rows.
+   * 
+   * @param from is the first row to copy (inclusive)
+   * @param to is the last row to copy (exclusive)
+   * @param codes receives the codes starting at index 0
+   */
+  public void get(int from, int to, int[] codes) {
+    for (int row = from; row < to; row++) codes[row - from] = get(row);
+  }
+}
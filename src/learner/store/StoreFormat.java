@@ -0,0 +1,495 @@
+package learner.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import learner.features.FeatureType;
+
+/**
+ * Reads and writes experience stores in a versioned binary format.
+ * 
+ * Layout (big-endian):
+ * 
+ *   header:       int magic, int version, int featureSize, int size
+ *   types:        byte per column (0 continuous, 1 nominal)
+ *   names:        byte 1 followed by a string per column if named, else byte 0
+ *   weights:      byte width of each row's weight, 0 if each row is one experience
+ *   dictionaries: per nominal column int count followed by strings
+ *   outcomes:     int count followed by tagged outcome values
+ *   columns:      per column, padded to 8 bytes, size doubles or size codes
+ *   outcomes:     padded to 8 bytes, size outcome codes
+ *   weights:      padded to 8 bytes, size weights if weighted
+ * 
+ * Codes are written with the fewest bytes (1, 2 or 4) that hold their
+ * dictionary.  Strings are an int byte length (-1 for null) followed by UTF-8
+ * bytes.  Primitive blocks are aligned so the file can be mapped directly.
+ * Version 1 stores have no names section and are read as unnamed.  Stores
+ * before version 3 have no weights section and are read as unweighted.
+ * 
+ * @author woodser
+ */
+public class StoreFormat {
+  
+  public static final int MAGIC = 0x4C524E52;  // "LRNR"
+  public static final int VERSION = 3;
+  
+  static final int ALIGNMENT = 8;
+  private static final int CHUNK_SIZE = 8192;
+  
+  // outcome value tags
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_STRING = 1;
+  private static final byte TAG_INTEGER = 2;
+  private static final byte TAG_LONG = 3;
+  private static final byte TAG_DOUBLE = 4;
+  private static final byte TAG_BOOLEAN = 5;
+  private static final byte TAG_SERIALIZED = 6;
+  
+  /**
+   * Writes a store to an output stream.  The stream is flushed but not closed.
+   * 
+   * @param store is the store to write
+   * @param out is the stream to write to
+   * @throws IOException if the stream cannot be written
+   */
+  public static void write(ExperienceStore store, OutputStream out) throws IOException {
+    CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+    DataOutputStream data = new DataOutputStream(counter);
+    int featureSize = store.getFeatureSize();
+    int size = store.size();
+    
+    // header
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(featureSize);
+    data.writeInt(size);
+    
+    // column types and dictionaries
+    for (int col = 0; col < featureSize; col++) data.writeByte(store.getType(col) == FeatureType.CONTINUOUS ? 0 : 1);
+    String[] names = store.getNames();
+    data.writeByte(names == null ? 0 : 1);
+    if (names != null) {
+      for (String name : names) writeString(data, name);
+    }
+    int weightWidth = 0;
+    if (store.isWeighted()) {
+      int maxWeight = 0;
+      for (int row = 0; row < size; row++) maxWeight = Math.max(maxWeight, store.getWeights().get(row));
+      weightWidth = getCodeWidth(maxWeight + 1);
+    }
+    data.writeByte(weightWidth);
+    for (int col = 0; col < featureSize; col++) {
+      if (store.getType(col) != FeatureType.NOMINAL) continue;
+      Dictionary<String> dictionary = store.getDictionary(col);
+      data.writeInt(dictionary.size());
+      for (int code = 0; code < dictionary.size(); code++) writeString(data, dictionary.decode(code));
+    }
+    Dictionary<Object> outcomeDictionary = store.getOutcomeDictionary();
+    data.writeInt(outcomeDictionary.size());
+    for (int code = 0; code < outcomeDictionary.size(); code++) writeValue(data, outcomeDictionary.decode(code));
+    
+    // columns
+    byte[] chunk = new byte[CHUNK_SIZE];
+    for (int col = 0; col < featureSize; col++) {
+      pad(data, counter.getCount());
+      if (store.getType(col) == FeatureType.CONTINUOUS) writeDoubles(data, store.getContinuous(col), size, chunk);
+      else writeCodes(data, store.getNominal(col), size, getCodeWidth(store.getDictionary(col).size()), chunk);
+    }
+    pad(data, counter.getCount());
+    writeCodes(data, store.getOutcomes(), size, getCodeWidth(outcomeDictionary.size()), chunk);
+    if (weightWidth != 0) {
+      pad(data, counter.getCount());
+      writeCodes(data, store.getWeights(), size, weightWidth, chunk);
+    }
+    data.flush();
+  }
+  
+  /**
+   * Reads a store from an input stream.  The stream is not closed.
+   * 
+   * Exactly the bytes of the store are read, so whatever follows it can be
+   * read from the stream afterwards.  Columns are read in chunks, but the
+   * header is read a field at a time, so unbuffered streams should be buffered
+   * by the caller.
+   * 
+   * @param in is the stream to read from
+   * @return ExperienceStore is the store read from the stream
+   * @throws IOException if the stream cannot be read or is not a store
+   */
+  public static ExperienceStore read(InputStream in) throws IOException {
+    CountingInputStream counter = new CountingInputStream(in);
+    DataInputStream data = new DataInputStream(counter);
+    Header header = readHeader(data);
+    
+    // columns
+    byte[] chunk = new byte[CHUNK_SIZE];
+    int featureSize = header.types.length;
+    ContinuousColumn[] continuous = new ContinuousColumn[featureSize];
+    NominalColumn[] nominal = new NominalColumn[featureSize];
+    for (int col = 0; col < featureSize; col++) {
+      skipPadding(data, counter.getCount());
+      if (header.types[col] == FeatureType.CONTINUOUS) continuous[col] = new HeapContinuousColumn(readDoubles(data, header.size, chunk));
+      else nominal[col] = new HeapNominalColumn(readCodes(data, header.size, getCodeWidth(header.dictionaries.get(col).size()), chunk));
+    }
+    skipPadding(data, counter.getCount());
+    NominalColumn outcomes = new HeapNominalColumn(readCodes(data, header.size, getCodeWidth(header.outcomeDictionary.size()), chunk));
+    NominalColumn weights = null;
+    if (header.weightWidth != 0) {
+      skipPadding(data, counter.getCount());
+      weights = new HeapNominalColumn(readCodes(data, header.size, header.weightWidth, chunk));
+    }
+    return header.toStore(continuous, nominal, outcomes, weights);
+  }
+  
+  /**
+   * Maps a store file into memory without copying its columns to the heap.
+   * 
+   * Columns are read directly from the mapped file, so processes mapping the
+   * same file share one copy in the page cache.  The file must not be modified
+   * while mapped.  Adding an experience to the store copies its columns to the heap.
+   * 
+   * @param file is the store file to map
+   * @return ExperienceStore is the store backed by the mapped file
+   * @throws IOException if the file cannot be read or is not a store
+   */
+  public static ExperienceStore map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), CHUNK_SIZE));
+      Header header = readHeader(new DataInputStream(counter));
+      
+      // map columns at their aligned positions
+      int featureSize = header.types.length;
+      ContinuousColumn[] continuous = new ContinuousColumn[featureSize];
+      NominalColumn[] nominal = new NominalColumn[featureSize];
+      long position = counter.getCount();
+      for (int col = 0; col < featureSize; col++) {
+        position += getPadding(position);
+        if (header.types[col] == FeatureType.CONTINUOUS) {
+          continuous[col] = new MappedContinuousColumn(map(channel, position, (long) header.size * 8));
+          position += (long) header.size * 8;
+        } else {
+          int width = getCodeWidth(header.dictionaries.get(col).size());
+          nominal[col] = new MappedNominalColumn(map(channel, position, (long) header.size * width), width);
+          position += (long) header.size * width;
+        }
+      }
+      position += getPadding(position);
+      int width = getCodeWidth(header.outcomeDictionary.size());
+      NominalColumn outcomes = new MappedNominalColumn(map(channel, position, (long) header.size * width), width);
+      position += (long) header.size * width;
+      NominalColumn weights = null;
+      if (header.weightWidth != 0) {
+        position += getPadding(position);
+        weights = new MappedNominalColumn(map(channel, position, (long) header.size * header.weightWidth), header.weightWidth);
+      }
+      return header.toStore(continuous, nominal, outcomes, weights);
+    }
+  }
+  
+  /**
+   * Gets the number of bytes used to write codes of a dictionary.
+   * 
+   * @param dictionarySize is the number of values in the dictionary
+   * @return int is 1, 2 or 4 bytes per code
+   */
+  static int getCodeWidth(int dictionarySize) {
+    if (dictionarySize <= 1 << 8) return 1;
+    if (dictionarySize <= 1 << 16) return 2;
+    return 4;
+  }
+  
+  /**
+   * Gets the number of padding bytes needed to align the given position.
+   * 
+   * @param position is the position to align
+   * @return int is the number of padding bytes
+   */
+  static int getPadding(long position) {
+    return (int) ((ALIGNMENT - position % ALIGNMENT) % ALIGNMENT);
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  /**
+   * Reads the header, column types and dictionaries of a store.
+   * 
+   * @param data is the stream positioned at the start of the store
+   * @return Header is the header of the store
+   * @throws IOException if the stream cannot be read or is not a store
+   */
+  private static Header readHeader(DataInputStream data) throws IOException {
+    if (data.readInt() != MAGIC) throw new IOException("Not a learner store");
+    int version = data.readInt();
+    if (version < 1 || version > VERSION) throw new IOException("Unsupported learner store version: " + version);
+    Header header = new Header();
+    int featureSize = data.readInt();
+    header.size = data.readInt();
+    if (featureSize < 0 || header.size < 0) throw new IOException("Corrupt learner store header");
+    header.types = new FeatureType[featureSize];
+    for (int col = 0; col < featureSize; col++) header.types[col] = data.readByte() == 0 ? FeatureType.CONTINUOUS : FeatureType.NOMINAL;
+    if (version >= 2 && data.readByte() != 0) {
+      header.names = new String[featureSize];
+      for (int col = 0; col < featureSize; col++) header.names[col] = readString(data);
+    }
+    if (version >= 3) {
+      header.weightWidth = data.readByte();
+      if (header.weightWidth != 0 && header.weightWidth != 1 && header.weightWidth != 2 && header.weightWidth != 4) throw new IOException("Corrupt learner store weight width: " + header.weightWidth);
+    }
+    header.dictionaries = new ArrayList<Dictionary<String>>(featureSize);
+    for (int col = 0; col < featureSize; col++) {
+      if (header.types[col] != FeatureType.NOMINAL) {
+        header.dictionaries.add(null);
+        continue;
+      }
+      Dictionary<String> dictionary = new Dictionary<String>();
+      int count = data.readInt();
+      for (int code = 0; code < count; code++) dictionary.encode(readString(data));
+      header.dictionaries.add(dictionary);
+    }
+    header.outcomeDictionary = new Dictionary<Object>();
+    int numOutcomes = data.readInt();
+    for (int code = 0; code < numOutcomes; code++) header.outcomeDictionary.encode(readValue(data));
+    return header;
+  }
+  
+  private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) throw new IOException("Column too large to map: " + length + " bytes");
+    if (position + length > channel.size()) throw new IOException("Truncated learner store");
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+  }
+  
+  private static void pad(DataOutputStream data, long position) throws IOException {
+    for (int i = getPadding(position); i > 0; i--) data.writeByte(0);
+  }
+  
+  private static void skipPadding(DataInputStream data, long position) throws IOException {
+    for (int i = getPadding(position); i > 0; i--) data.readByte();
+  }
+  
+  private static void writeDoubles(DataOutputStream data, ContinuousColumn values, int size, byte[] chunk) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    for (int i = 0; i < size; i++) {
+      if (buffer.remaining() < 8) flush(data, buffer);
+      buffer.putDouble(values.get(i));
+    }
+    flush(data, buffer);
+  }
+  
+  private static double[] readDoubles(DataInputStream data, int size, byte[] chunk) throws IOException {
+    double[] values = new double[size];
+    int perChunk = chunk.length / 8;
+    for (int start = 0; start < size; start += perChunk) {
+      int count = Math.min(perChunk, size - start);
+      data.readFully(chunk, 0, count * 8);
+      ByteBuffer.wrap(chunk, 0, count * 8).asDoubleBuffer().get(values, start, count);
+    }
+    return values;
+  }
+  
+  private static void writeCodes(DataOutputStream data, NominalColumn codes, int size, int width, byte[] chunk) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    for (int i = 0; i < size; i++) {
+      if (buffer.remaining() < width) flush(data, buffer);
+      if (width == 1) buffer.put((byte) codes.get(i));
+      else if (width == 2) buffer.putShort((short) codes.get(i));
+      else buffer.putInt(codes.get(i));
+    }
+    flush(data, buffer);
+  }
+  
+  private static int[] readCodes(DataInputStream data, int size, int width, byte[] chunk) throws IOException {
+    int[] codes = new int[size];
+    int perChunk = chunk.length / width;
+    for (int start = 0; start < size; start += perChunk) {
+      int count = Math.min(perChunk, size - start);
+      data.readFully(chunk, 0, count * width);
+      ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, count * width);
+      for (int i = start; i < start + count; i++) {
+        if (width == 1) codes[i] = buffer.get() & 0xFF;
+        else if (width == 2) codes[i] = buffer.getShort() & 0xFFFF;
+        else codes[i] = buffer.getInt();
+      }
+    }
+    return codes;
+  }
+  
+  private static void flush(DataOutputStream data, ByteBuffer buffer) throws IOException {
+    data.write(buffer.array(), 0, buffer.position());
+    buffer.clear();
+  }
+  
+  static void writeString(DataOutputStream data, String str) throws IOException {
+    if (str == null) {
+      data.writeInt(-1);
+      return;
+    }
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+  
+  static String readString(DataInputStream data) throws IOException {
+    int length = data.readInt();
+    if (length == -1) return null;
+    if (length < 0) throw new IOException("Corrupt string length: " + length);
+    byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  static void writeValue(DataOutputStream data, Object value) throws IOException {
+    if (value == null) {
+      data.writeByte(TAG_NULL);
+    } else if (value instanceof String) {
+      data.writeByte(TAG_STRING);
+      writeString(data, (String) value);
+    } else if (value instanceof Integer) {
+      data.writeByte(TAG_INTEGER);
+      data.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      data.writeByte(TAG_LONG);
+      data.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      data.writeByte(TAG_DOUBLE);
+      data.writeDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      data.writeByte(TAG_BOOLEAN);
+      data.writeBoolean((Boolean) value);
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objects = new ObjectOutputStream(bytes);
+      objects.writeObject(value);
+      objects.close();
+      data.writeByte(TAG_SERIALIZED);
+      data.writeInt(bytes.size());
+      bytes.writeTo(data);
+    }
+  }
+  
+  static Object readValue(DataInputStream data) throws IOException {
+    byte tag = data.readByte();
+    switch (tag) {
+      case TAG_NULL: return null;
+      case TAG_STRING: return readString(data);
+      case TAG_INTEGER: return data.readInt();
+      case TAG_LONG: return data.readLong();
+      case TAG_DOUBLE: return data.readDouble();
+      case TAG_BOOLEAN: return data.readBoolean();
+      case TAG_SERIALIZED:
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+          return objects.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Cannot read outcome", e);
+        }
+      default: throw new IOException("Unknown outcome tag: " + tag);
+    }
+  }
+  
+  /**
+   * Counts bytes written to align primitive blocks.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    
+    private long count;
+    
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+    
+    long getCount() {
+      return count;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+  
+  /**
+   * Counts bytes read to skip alignment padding.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    
+    private long count;
+    
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+    
+    long getCount() {
+      return count;
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) count++;
+      return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) count += read;
+      return read;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+    
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+  
+  /**
+   * Header, column types and dictionaries of a store.
+   */
+  private static class Header {
+    
+    private int size;
+    private FeatureType[] types;
+    private String[] names;
+    private int weightWidth;
+    private List<Dictionary<String>> dictionaries;
+    private Dictionary<Object> outcomeDictionary;
+    
+    private ExperienceStore toStore(ContinuousColumn[] continuous, NominalColumn[] nominal, NominalColumn outcomes, NominalColumn weights) {
+      return new ExperienceStore(types.length == 0 ? null : types, names, continuous, nominal, dictionaries, outcomes, weights, outcomeDictionary, size, size);
+    }
+  }
+}
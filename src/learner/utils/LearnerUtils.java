@@ -1,10 +1,7 @@
 package learner.utils;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class LearnerUtils {
@@ -19,15 +16,47 @@ public class LearnerUtils {
    */
   public static double getConfidence(Map<Object, Double> distribution) {
     double sum = 0;
-    for (Double val : distribution.values()) {
+    double best = Double.NEGATIVE_INFINITY;
+    double nextBest = Double.NEGATIVE_INFINITY;
+    for (double val : distribution.values()) {
       sum += val;
+      if (val > best) {
+        nextBest = best;
+        best = val;
+      } else if (val > nextBest) {
+        nextBest = val;
+      }
     }
     if (sum == 0) return 0;
     if (distribution.keySet().size() == 1) return 1;
-    List<Double> values = new ArrayList<Double>(distribution.values());
-    Collections.sort(values);
-    Collections.reverse(values);
-    return values.get(0) / sum - values.get(1) / sum;
+    return best / sum - nextBest / sum;
+  }
+  
+  /**
+   * Computes confidence for a distribution of scores indexed by outcome code.
+   * 
+   * @param scores contain the outcome distribution
+   * @param offset is the index of the distribution's first outcome
+   * @param numOutcomes is the number of outcomes in the distribution
+   * @return double indicates how confident the distribution is
+   */
+  public static double getConfidence(double[] scores, int offset, int numOutcomes) {
+    double sum = 0;
+    double best = Double.NEGATIVE_INFINITY;
+    double nextBest = Double.NEGATIVE_INFINITY;
+    for (int i = offset; i < offset + numOutcomes; i++) {
+      double val = scores[i];
+      sum += val;
+      if (val > best) {
+        nextBest = best;
+        best = val;
+      } else if (val > nextBest) {
+        nextBest = val;
+      }
+    }
+    if (sum == 0) return 0;
+    if (numOutcomes == 1) return 1;
+    return best / sum - nextBest / sum;
   }
   
   /**
@@ -0,0 +1,155 @@
+package ml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Reads instances from CSV one row at a time.
+ * 
+ * Column types are inferred from a sample of the first rows: a column is
+ * continuous if every sampled value is a number and nominal otherwise, and
+ * keeps that type for the rest of the file.  The last column is the
+ * classification.  Only the sample is held in memory.
+ * 
+ * @author woodser
+ */
+public class CsvInstanceReader implements Closeable {
+  
+  public static final int DEFAULT_SAMPLE_SIZE = 1000;
+  
+  private CsvTokenizer tokenizer;
+  private NumberParser parser;
+  private String[] featureNames;
+  private boolean[] continuous;         // indicates if each feature column is continuous
+  private Queue<String[]> sample;       // sampled rows not yet returned
+  private Queue<Long> sampleLines;      // line number of each sampled row not yet returned
+  
+  /**
+   * Constructs a reader which infers column types from the default number of rows.
+   * 
+   * @param reader provides the CSV content
+   * @param headers indicates if the first row should be treated as headers
+   * @throws IOException if the content cannot be read
+   */
+  public CsvInstanceReader(Reader reader, boolean headers) throws IOException {
+    this(reader, headers, DEFAULT_SAMPLE_SIZE);
+  }
+  
+  /**
+   * Constructs a reader.
+   * 
+   * @param reader provides the CSV content
+   * @param headers indicates if the first row should be treated as headers
+   * @param sampleSize is the number of rows to infer column types from
+   * @throws IOException if the content cannot be read
+   */
+  public CsvInstanceReader(Reader reader, boolean headers, int sampleSize) throws IOException {
+    this.tokenizer = new CsvTokenizer(reader);
+    this.parser = new NumberParser();
+    String[] headerRow = headers && tokenizer.next() ? getRow() : null;
+    
+    // sample rows to infer column types
+    sample = new ArrayDeque<String[]>();
+    sampleLines = new ArrayDeque<Long>();
+    while (sample.size() < sampleSize && tokenizer.next()) {
+      if (continuous == null) {
+        continuous = new boolean[tokenizer.size() - 1];
+        Arrays.fill(continuous, true);
+      } else {
+        checkSize(tokenizer.size(), tokenizer.getLineNumber());
+      }
+      for (int col = 0; col < continuous.length; col++) {
+        if (continuous[col] && !tokenizer.isNumber(col)) continuous[col] = false;
+      }
+      sample.add(getRow());
+      sampleLines.add(tokenizer.getLineNumber());
+    }
+    if (continuous == null) continuous = new boolean[headerRow == null ? 0 : Math.max(0, headerRow.length - 1)];
+    
+    // name features
+    featureNames = new String[continuous.length];
+    for (int col = 0; col < featureNames.length; col++) featureNames[col] = headerRow != null ? headerRow[col] : "Feature " + col;
+  }
+  
+  /**
+   * Gets the names of the features read.
+   * 
+   * @return String[] are the feature names in column order
+   */
+  public String[] getFeatureNames() {
+    return featureNames.clone();
+  }
+  
+  /**
+   * Indicates if a feature column was inferred to be continuous.
+   * 
+   * @param col is the feature column
+   * @return true if the column is continuous, false if it is nominal
+   */
+  public boolean isContinuous(int col) {
+    return continuous[col];
+  }
+  
+  /**
+   * Reads the next instance.
+   * 
+   * @return Instance is the next instance or null if there are no more rows
+   * @throws IOException if the content cannot be read
+   */
+  public Instance next() throws IOException {
+    Map<String, Object> features = new HashMap<String, Object>();
+    
+    // return sampled rows first
+    if (!sample.isEmpty()) {
+      String[] row = sample.poll();
+      long lineNumber = sampleLines.poll();
+      for (int col = 0; col < continuous.length; col++) {
+        if (continuous[col]) {
+          if (!parser.parse(row[col])) throw notANumber(col, row[col], lineNumber);
+          features.put(featureNames[col], parser.getValue());
+        } else {
+          features.put(featureNames[col], row[col]);
+        }
+      }
+      return new Instance(features, row[continuous.length]);
+    }
+    
+    // read directly from the tokenizer
+    if (!tokenizer.next()) return null;
+    checkSize(tokenizer.size(), tokenizer.getLineNumber());
+    for (int col = 0; col < continuous.length; col++) {
+      if (continuous[col]) {
+        if (!tokenizer.isNumber(col)) throw notANumber(col, tokenizer.getString(col), tokenizer.getLineNumber());
+        features.put(featureNames[col], tokenizer.getNumber());
+      } else {
+        features.put(featureNames[col], tokenizer.getString(col));
+      }
+    }
+    return new Instance(features, tokenizer.getString(continuous.length));
+  }
+  
+  @Override
+  public void close() throws IOException {
+    tokenizer.close();
+  }
+  
+  private String[] getRow() {
+    String[] row = new String[tokenizer.size()];
+    for (int col = 0; col < row.length; col++) row[col] = tokenizer.getString(col);
+    return row;
+  }
+  
+  private void checkSize(int size, long lineNumber) {
+    if (size - 1 != continuous.length) throw new MlException("Expected " + (continuous.length + 1) + " columns but got " + size + " at line " + lineNumber);
+  }
+  
+  private MlException notANumber(int col, String value, long lineNumber) {
+    return new MlException("Expected a number in column " + featureNames[col] + " but got '" + value + "' at line " + lineNumber);
+  }
+}
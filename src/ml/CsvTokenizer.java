@@ -0,0 +1,280 @@
+package ml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits CSV content into fields one row at a time without allocating per field.
+ * 
+ * Fields may be quoted with double quotes, in which case they may contain
+ * commas, line breaks and doubled quotes.  Whitespace around unquoted fields
+ * is trimmed and empty lines are skipped.  Field text is kept in a reused
+ * buffer until requested: numbers are parsed directly from the buffer and
+ * strings are interned per column so repeated nominal values share one
+ * instance.
+ * 
+ * @author woodser
+ */
+public class CsvTokenizer implements Closeable {
+  
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_INTERNED_PER_COLUMN = 1 << 16;
+  
+  private Reader reader;
+  private char[] buffer = new char[BUFFER_SIZE];  // characters read but not yet tokenized
+  private int position;
+  private int limit;
+  private char[] chars = new char[256];            // field text of the current row
+  private int numChars;
+  private int[] starts = new int[16];              // start of each field in chars
+  private int[] ends = new int[16];                // end of each field in chars
+  private boolean[] quoted = new boolean[16];      // indicates if each field was quoted
+  private int numFields;
+  private long lineNumber;
+  private StringTable[] tables = new StringTable[16];
+  private NumberParser parser = new NumberParser();
+  
+  /**
+   * Constructs a tokenizer.
+   * 
+   * @param reader provides the CSV content
+   */
+  public CsvTokenizer(Reader reader) {
+    this.reader = reader;
+  }
+  
+  /**
+   * Advances to the next non-empty row.
+   * 
+   * @return true if a row was read, false if there are no more rows
+   * @throws IOException if the content cannot be read
+   */
+  public boolean next() throws IOException {
+    do {
+      if (!readRow()) return false;
+    } while (numFields == 1 && starts[0] == ends[0] && !quoted[0]);
+    return true;
+  }
+  
+  /**
+   * Gets the number of fields in the current row.
+   * 
+   * @return int is the number of fields in the current row
+   */
+  public int size() {
+    return numFields;
+  }
+  
+  /**
+   * Gets the line number the current row ends on.
+   * 
+   * @return long is the 1-based line number of the current row
+   */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+  
+  /**
+   * Gets a field of the current row as a string.  Repeated values in a column return the same instance.
+   * 
+   * @param field is the index of the field
+   * @return String is the text of the field
+   */
+  public String getString(int field) {
+    checkField(field);
+    if (field >= tables.length) {
+      StringTable[] grown = new StringTable[Math.max(field + 1, tables.length * 2)];
+      System.arraycopy(tables, 0, grown, 0, tables.length);
+      tables = grown;
+    }
+    if (tables[field] == null) tables[field] = new StringTable();
+    return tables[field].intern(chars, starts[field], ends[field] - starts[field]);
+  }
+  
+  /**
+   * Indicates if a field of the current row is a number.  If so, its value is available from getNumber().
+   * 
+   * @param field is the index of the field
+   * @return true if the field is a number, false otherwise
+   */
+  public boolean isNumber(int field) {
+    checkField(field);
+    return parser.parse(chars, starts[field], ends[field] - starts[field]);
+  }
+  
+  /**
+   * Gets the value of the field last found to be a number by isNumber().
+   * 
+   * @return double is the value of the number
+   */
+  public double getNumber() {
+    return parser.getValue();
+  }
+  
+  /**
+   * Gets a field of the current row as a number.
+   * 
+   * @param field is the index of the field
+   * @return double is the value of the field
+   * @throws MlException if the field is not a number
+   */
+  public double getDouble(int field) {
+    if (!isNumber(field)) throw new MlException("Expected a number in field " + field + " but got '" + new String(chars, starts[field], ends[field] - starts[field]) + "' at line " + lineNumber);
+    return parser.getValue();
+  }
+  
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private void checkField(int field) {
+    if (field < 0 || field >= numFields) throw new IndexOutOfBoundsException("Field " + field + " out of bounds for row of " + numFields + " fields");
+  }
+  
+  private boolean readRow() throws IOException {
+    int c = read();
+    if (c == -1) return false;
+    lineNumber++;
+    numFields = 0;
+    numChars = 0;
+    startField();
+    boolean inQuotes = false;
+    int contentEnd = numChars;  // end of the field's content excluding trailing whitespace
+    while (true) {
+      if (inQuotes) {
+        if (c == -1) throw new MlException("Unterminated quoted field at line " + lineNumber);
+        if (c == '"') {
+          if (peek() == '"') {
+            read();
+            append('"');
+          } else {
+            inQuotes = false;
+          }
+          contentEnd = numChars;
+        } else {
+          if (c == '\n') lineNumber++;
+          append((char) c);
+          contentEnd = numChars;
+        }
+      } else if (c == -1 || c == '\n' || c == '\r') {
+        if (c == '\r' && peek() == '\n') read();
+        ends[numFields++] = contentEnd;
+        return true;
+      } else if (c == ',') {
+        ends[numFields++] = contentEnd;
+        startField();
+        contentEnd = numChars;
+      } else if (c == ' ' || c == '\t') {
+        if (numChars > starts[numFields] || quoted[numFields]) append((char) c);  // leading whitespace is skipped
+      } else if (c == '"' && numChars == starts[numFields] && !quoted[numFields]) {
+        inQuotes = true;
+        quoted[numFields] = true;
+      } else {
+        append((char) c);
+        contentEnd = numChars;
+      }
+      c = read();
+    }
+  }
+  
+  private void startField() {
+    if (numFields == starts.length) {
+      int newLength = starts.length * 2;
+      starts = grow(starts, newLength);
+      ends = grow(ends, newLength);
+      boolean[] grownQuoted = new boolean[newLength];
+      System.arraycopy(quoted, 0, grownQuoted, 0, quoted.length);
+      quoted = grownQuoted;
+    }
+    starts[numFields] = numChars;
+    quoted[numFields] = false;
+  }
+  
+  private static int[] grow(int[] array, int newLength) {
+    int[] grown = new int[newLength];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+  
+  private void append(char c) {
+    if (numChars == chars.length) {
+      char[] grown = new char[chars.length * 2];
+      System.arraycopy(chars, 0, grown, 0, numChars);
+      chars = grown;
+    }
+    chars[numChars++] = c;
+  }
+  
+  private int read() throws IOException {
+    if (position == limit && !fill()) return -1;
+    return buffer[position++];
+  }
+  
+  private int peek() throws IOException {
+    if (position == limit && !fill()) return -1;
+    return buffer[position];
+  }
+  
+  private boolean fill() throws IOException {
+    int read;
+    do {
+      read = reader.read(buffer, 0, buffer.length);
+    } while (read == 0);
+    if (read == -1) return false;
+    position = 0;
+    limit = read;
+    return true;
+  }
+  
+  /**
+   * Open addressing table of strings keyed by their characters.
+   */
+  private static class StringTable {
+    
+    private String[] entries = new String[64];
+    private int size;
+    
+    String intern(char[] chars, int offset, int length) {
+      int hash = 0;
+      for (int i = offset; i < offset + length; i++) hash = 31 * hash + chars[i];
+      int mask = entries.length - 1;
+      int idx = (hash ^ (hash >>> 16)) & mask;
+      String entry;
+      while ((entry = entries[idx]) != null) {
+        if (equals(entry, chars, offset, length)) return entry;
+        idx = (idx + 1) & mask;
+      }
+      String str = new String(chars, offset, length);
+      if (size < MAX_INTERNED_PER_COLUMN) {
+        entries[idx] = str;
+        if (++size * 2 > entries.length) rehash();
+      }
+      return str;
+    }
+    
+    private static boolean equals(String str, char[] chars, int offset, int length) {
+      if (str.length() != length) return false;
+      for (int i = 0; i < length; i++) {
+        if (str.charAt(i) != chars[offset + i]) return false;
+      }
+      return true;
+    }
+    
+    private void rehash() {
+      String[] old = entries;
+      entries = new String[old.length * 2];
+      int mask = entries.length - 1;
+      for (String str : old) {
+        if (str == null) continue;
+        int hash = str.hashCode();
+        int idx = (hash ^ (hash >>> 16)) & mask;
+        while (entries[idx] != null) idx = (idx + 1) & mask;
+        entries[idx] = str;
+      }
+    }
+  }
+}
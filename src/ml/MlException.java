@@ -12,4 +12,8 @@ public class MlException extends RuntimeException {
   public MlException(String msg) {
     super(msg);
   }
+  
+  public MlException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
 }
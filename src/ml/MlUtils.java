@@ -1,12 +1,10 @@
 package ml;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -29,7 +27,39 @@ public class MlUtils {
   public static List<Instance> loadInstances(File file, boolean headers) throws FileNotFoundException, IOException {
     return getInstances(importCsv(file), headers);
   }
-
+  
+  /**
+   * Streams classified instances from a CSV file into a model's training instances in batches.
+   * 
+   * Column types are inferred from the first rows and only one batch of
+   * instances is held in memory at a time, so files larger than memory can be
+   * trained on.  The last column is assumed to be the classification.
+   * 
+   * @param file is the CSV file to read instances from
+   * @param headers indicate whether or not to treat the first row as headers
+   * @param model is the model to add the training instances to
+   * @param batchSize is the number of instances to add to the model at a time
+   * @return long is the number of instances added
+   * @throws IOException if the file cannot be read
+   */
+  public static long addTrainingInstances(File file, boolean headers, Model model, int batchSize) throws IOException {
+    long count = 0;
+    List<Instance> batch = new ArrayList<Instance>(batchSize);
+    try (CsvInstanceReader reader = new CsvInstanceReader(new FileReader(file), headers)) {
+      Instance instance;
+      while ((instance = reader.next()) != null) {
+        batch.add(instance);
+        if (batch.size() == batchSize) {
+          model.addTrainingInstances(batch);
+          count += batch.size();
+          batch.clear();
+        }
+      }
+    }
+    model.addTrainingInstances(batch);
+    return count + batch.size();
+  }
+  
   /**
    * Converts a table of strings into a list of instances.
    * 
@@ -64,6 +94,9 @@ public class MlUtils {
   /**
    * Imports a CSV file.
    * 
+   * Quoted fields are unquoted, whitespace around unquoted fields is trimmed,
+   * and empty lines are skipped.
+   * 
    * @param file points to the CSV file
    * @return List<List<String>> are the rows and columns of the CSV file
    * @throws FileNotFoundException
@@ -71,10 +104,11 @@ public class MlUtils {
    */
   public static List<List<String>> importCsv(File file) throws FileNotFoundException, IOException {
     List<List<String>> rows = new ArrayList<List<String>>();
-    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-      String line;
-      while ((line = br.readLine()) != null) {
-        rows.add(Arrays.asList(line.split(",")));
+    try (CsvTokenizer tokenizer = new CsvTokenizer(new FileReader(file))) {
+      while (tokenizer.next()) {
+        List<String> row = new ArrayList<String>(tokenizer.size());
+        for (int field = 0; field < tokenizer.size(); field++) row.add(tokenizer.getString(field));
+        rows.add(row);
       }
     }
     return rows;
@@ -98,10 +132,7 @@ public class MlUtils {
    * @return Double if the string represents a number, null otherwise
    */
   private static Double getDouble(String val) {
-    try {
-      return Double.parseDouble(val);
-    } catch (Exception e) {
-      return null;
-    }
+    NumberParser parser = new NumberParser();
+    return parser.parse(val) ? parser.getValue() : null;
   }
 }
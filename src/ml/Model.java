@@ -1,5 +1,8 @@
 package ml;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 
 /**
@@ -16,6 +19,14 @@ public interface Model {
    */
   public void load(byte[] bytes);
   
+  /**
+   * Imports an existing model from a stream, replacing the state of this model.
+   * 
+   * @param in is the stream to import the model from, which is not closed
+   * @throws IOException if the stream cannot be read or does not contain a model
+   */
+  public void load(InputStream in) throws IOException;
+  
   /**
    * Exports this model to a byte[].
    * 
@@ -23,11 +34,30 @@ public interface Model {
    */
   public byte[] export();
   
+  /**
+   * Exports this model to a stream.
+   * 
+   * @param out is the stream to export the model to, which is flushed but not closed
+   * @throws IOException if the stream cannot be written
+   */
+  public void export(OutputStream out) throws IOException;
+  
   /**
    * Trains this model with its existing instances.
+   * 
+   * Instances added before or after training are classified by the model
+   * right away.  Training compacts the model and rebuilds the structures
+   * which speed up classification.
    */
   public void train();
   
+  /**
+   * Gets the names and types of the features the model learns from.
+   * 
+   * @return Schema is the schema of the model's features, null if not yet known
+   */
+  public Schema getSchema();
+  
   /**
    * Adds a training instance to this model.
    * 
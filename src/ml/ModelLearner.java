@@ -1,21 +1,31 @@
 package ml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import learner.Experience;
 import learner.Learner;
 import learner.features.ContinuousFeature;
 import learner.features.Feature;
 import learner.features.NominalFeature;
+import learner.store.ExperienceStore;
 import learner.utils.Pair;
 
-import org.apache.commons.lang3.SerializationUtils;
-
 /**
  * Implements a model backed by a Learner.
  * 
@@ -23,52 +33,207 @@ import org.apache.commons.lang3.SerializationUtils;
  */
 public class ModelLearner implements Model {
   
+  private static final int BATCHES_PER_THREAD = 4;  // batches per thread to balance uneven classification times
+  
   private Learner learner;
+  private ExecutorService executor;  // executor to classify instance collections with, null to classify serially
+  private volatile Schema schema;    // names and types of the learner's features, null until known
+  private volatile QueryPlan plan;   // maps instance features to the learner's columns, compiled on first classification
   
   public ModelLearner() {
     this.learner = new Learner();
   }
+  
+  /**
+   * Gets the executor used to classify collections of instances.
+   * 
+   * @return ExecutorService is the executor used to classify collections, null if collections are classified serially
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+  
+  /**
+   * Sets the executor used to classify collections of instances, e.g. a ForkJoinPool.
+   * 
+   * The model must not be trained or loaded while a collection is being classified.
+   * 
+   * @param executor is the executor to classify collections with, null to classify serially
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
 
+  @Override
+  public Schema getSchema() {
+    return schema;
+  }
+  
   @Override
   public void load(byte[] bytes) {
-    this.learner = (Learner) SerializationUtils.deserialize(bytes);
+    try {
+      load(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new MlException("Cannot load model", e);
+    }
+  }
+  
+  @Override
+  public void load(InputStream in) throws IOException {
+    setLearner(Learner.read(in));
+  }
+
+  /**
+   * Imports a model exported to a file by memory-mapping it, replacing the state of this model.
+   * 
+   * The model's training data is read directly from the mapped file instead of
+   * being copied to the heap, so many processes can share one copy of a model.
+   * 
+   * @param file is a file the model was exported to
+   * @throws IOException if the file cannot be read or does not contain a model
+   */
+  public void map(File file) throws IOException {
+    setLearner(Learner.map(file));
   }
 
   @Override
   public byte[] export() {
-    return SerializationUtils.serialize(learner);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      export(out);
+    } catch (IOException e) {
+      throw new MlException("Cannot export model", e);
+    }
+    return out.toByteArray();
+  }
+  
+  @Override
+  public void export(OutputStream out) throws IOException {
+    learner.write(out);
   }
 
   @Override
   public void train() {
-    // nothing to do
+    if (learner.getStore().isEmpty()) return;
+    learner.optimize();
+    plan = null;  // a deduplicated learner replaces the store the plan's queries are encoded against
   }
 
   @Override
   public void addTrainingInstance(Instance instance) {
-    learner.learn(getExperience(instance));
+    Schema schema = this.schema;
+    if (schema == null) schema = learner.getStore().isEmpty() ? Schema.infer(instance) : Schema.of(learner.getStore(), instance);
+    learner.learn(schema.getFeatures(instance), instance.getClassification());
+    if (this.schema == null) {
+      learner.getStore().setNames(schema.getNames());
+      this.schema = schema;
+    }
   }
 
   @Override
   public void addTrainingInstances(Collection<Instance> instances) {
-    for (Instance instance : instances) addTrainingInstance(instance);
+    Iterator<Instance> iter = instances.iterator();
+    if (schema == null && iter.hasNext()) addTrainingInstance(iter.next());
+    List<Experience> experiences = new ArrayList<Experience>(instances.size());
+    while (iter.hasNext()) {
+      Instance instance = iter.next();
+      experiences.add(new Experience(schema.getFeatures(instance), instance.getClassification()));
+    }
+    learner.learnAll(experiences);
   }
 
   @Override
   public Instance classify(Instance instance) {
-    Experience experience = getExperience(instance);
-    Map<Object, Double> distribution = learner.getDistribution(experience.getFeatures());
+    return classify(learner, instance);
+  }
+
+  @Override
+  public Collection<Instance> classify(Collection<Instance> instances) {
+    if (executor == null || instances.size() < 2) {
+      for (Instance instance : instances) classify(instance);
+      return instances;
+    }
+    return classify(instances, executor);
+  }
+  
+  /**
+   * Classifies instances in parallel batches, altering their internal state.
+   * 
+   * Every batch classifies against the learner the model holds when this method is called.
+   * 
+   * @param instances are the instances to classify
+   * @param executor is the executor to classify batches of instances with
+   * @return Collection<Instance> is a reference to the classified instances for convenience
+   */
+  public Collection<Instance> classify(Collection<Instance> instances, ExecutorService executor) {
+    final Learner snapshot = learner;
+    List<Instance> list = new ArrayList<Instance>(instances);
+    int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+    int numBatches = Math.min(list.size(), parallelism * BATCHES_PER_THREAD);
+    
+    // submit batches
+    List<Future<?>> futures = new ArrayList<Future<?>>(numBatches);
+    for (int i = 0; i < numBatches; i++) {
+      final List<Instance> batch = list.subList((int) ((long) i * list.size() / numBatches), (int) ((long) (i + 1) * list.size() / numBatches));
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (Instance instance : batch) classify(snapshot, instance);
+        }
+      }));
+    }
+    
+    // wait for batches to complete
+    try {
+      for (Future<?> future : futures) future.get();
+    } catch (InterruptedException e) {
+      for (Future<?> future : futures) future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new MlException("Interrupted while classifying instances", e);
+    } catch (ExecutionException e) {
+      for (Future<?> future : futures) future.cancel(true);
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new MlException("Failed to classify instances", e.getCause());
+    }
+    return instances;
+  }
+  
+  /**
+   * Classifies an instance against the given learner, altering its internal state.
+   * 
+   * The instance is encoded directly into a reused query through the schema.
+   * 
+   * @param learner is the learner to classify against
+   * @param instance is the instance to classify
+   * @return Instance is a reference to the classified instance for convenience
+   */
+  private Instance classify(Learner learner, Instance instance) {
+    QueryPlan plan = this.plan;
+    if (plan == null || plan.getLearner() != learner) {
+      Schema schema = this.schema;
+      if (schema == null && !learner.getStore().isEmpty()) schema = Schema.of(learner.getStore(), instance);
+      plan = new QueryPlan(learner, schema);
+      this.schema = schema;
+      this.plan = plan;
+    }
+    Map<Object, Double> distribution = learner.getDistribution(plan.encode(instance));
     instance.setDistribution(distribution);
     Pair<Object, Double> classification = learner.getClassification(distribution, 0);
     instance.setClassification(classification.getFirst());
     instance.setProbability(classification.getSecond());
     return instance;
   }
-
-  @Override
-  public Collection<Instance> classify(Collection<Instance> instances) {
-    for (Instance instance : instances) classify(instance);
-    return instances;
+  
+  /**
+   * Replaces the learner, taking the schema from the names its columns were exported with.
+   * 
+   * @param learner is the new learner
+   */
+  private void setLearner(Learner learner) {
+    ExperienceStore store = learner.getStore();
+    this.learner = learner;
+    this.schema = store.getNames() == null ? null : Schema.of(store, null);
+    this.plan = null;
   }
   
   /**
@@ -0,0 +1,207 @@
+package ml;
+
+/**
+ * Parses decimal numbers from characters without throwing on non-numbers.
+ * 
+ * Accepts what Double.parseDouble accepts; hexadecimal notation is simply
+ * delegated to Double.parseDouble.  Numbers whose digits fit in 53 bits with
+ * a decimal exponent within 22 are computed exactly with one multiplication
+ * or division.  Other numbers are validated here and then handed to
+ * Double.parseDouble, so results are always correctly rounded.
+ * 
+ * @author woodser
+ */
+public class NumberParser {
+  
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final int MAX_MANTISSA_DIGITS = 18;
+  
+  private double value;  // value of the last successfully parsed number
+  
+  /**
+   * Gets the value of the last number parsed successfully.
+   * 
+   * @return double is the value of the last parsed number
+   */
+  public double getValue() {
+    return value;
+  }
+  
+  /**
+   * Parses a number from a string.
+   * 
+   * @param str is the string to parse
+   * @return true if the string is a number whose value is available from getValue(), false otherwise
+   */
+  public boolean parse(String str) {
+    return parse(str, 0, str.length());
+  }
+  
+  /**
+   * Parses a number from a range of characters.  Surrounding whitespace is ignored.
+   * 
+   * @param chars contains the characters to parse
+   * @param offset is the start of the range
+   * @param length is the length of the range
+   * @return true if the characters are a number whose value is available from getValue(), false otherwise
+   */
+  public boolean parse(char[] chars, int offset, int length) {
+    return parse(new CharArraySequence(chars, offset, length), 0, length);
+  }
+  
+  /**
+   * Parses a number from a range of a character sequence.  Surrounding whitespace is ignored.
+   * 
+   * @param chars contains the characters to parse
+   * @param start is the start of the range (inclusive)
+   * @param end is the end of the range (exclusive)
+   * @return true if the characters are a number whose value is available from getValue(), false otherwise
+   */
+  public boolean parse(CharSequence chars, int start, int end) {
+    while (start < end && chars.charAt(start) <= ' ') start++;
+    while (end > start && chars.charAt(end - 1) <= ' ') end--;
+    if (start == end) return false;
+    int idx = start;
+    boolean negative = false;
+    char c = chars.charAt(idx);
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      if (++idx == end) return false;
+      c = chars.charAt(idx);
+    }
+    
+    // special values
+    if (c == 'N') return matches(chars, idx, end, "NaN") && set(Double.NaN);
+    if (c == 'I') return matches(chars, idx, end, "Infinity") && set(negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+    if (c == '0' && idx + 1 < end && (chars.charAt(idx + 1) == 'x' || chars.charAt(idx + 1) == 'X')) return parseHex(chars, start, end);
+    
+    // mantissa
+    long mantissa = 0;
+    int digits = 0;          // significant digits accumulated into the mantissa
+    int dropped = 0;         // integer digits beyond the mantissa's precision
+    int exponent = 0;
+    boolean anyDigits = false;
+    boolean exact = true;    // no nonzero digit was dropped
+    for (; idx < end && (c = chars.charAt(idx)) >= '0' && c <= '9'; idx++) {
+      anyDigits = true;
+      if (digits < MAX_MANTISSA_DIGITS) {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0) digits++;
+      } else {
+        dropped++;
+        if (c != '0') exact = false;
+      }
+    }
+    if (idx < end && chars.charAt(idx) == '.') {
+      for (idx++; idx < end && (c = chars.charAt(idx)) >= '0' && c <= '9'; idx++) {
+        anyDigits = true;
+        if (digits < MAX_MANTISSA_DIGITS) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) digits++;
+          exponent--;
+        } else if (c != '0') {
+          exact = false;
+        }
+      }
+    }
+    if (!anyDigits) return false;
+    exponent += dropped;
+    
+    // exponent
+    if (idx < end && ((c = chars.charAt(idx)) == 'e' || c == 'E')) {
+      if (++idx == end) return false;
+      boolean negativeExponent = false;
+      c = chars.charAt(idx);
+      if (c == '-' || c == '+') {
+        negativeExponent = c == '-';
+        if (++idx == end) return false;
+      }
+      int explicit = 0;
+      boolean anyExponentDigits = false;
+      for (; idx < end && (c = chars.charAt(idx)) >= '0' && c <= '9'; idx++) {
+        anyExponentDigits = true;
+        if (explicit < 100000) explicit = explicit * 10 + (c - '0');
+      }
+      if (!anyExponentDigits) return false;
+      exponent += negativeExponent ? -explicit : explicit;
+    }
+    
+    // optional type suffix
+    if (idx < end && ((c = chars.charAt(idx)) == 'd' || c == 'D' || c == 'f' || c == 'F')) {
+      idx++;
+      exact = false;  // float suffixes are rare, defer to the JDK
+    }
+    if (idx != end) return false;
+    
+    // exact fast path, otherwise defer to the JDK now that the syntax is known to be valid
+    if (exact && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+      double result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+      return set(negative ? -result : result);
+    }
+    return set(Double.parseDouble(chars.subSequence(start, end).toString()));
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private boolean set(double value) {
+    this.value = value;
+    return true;
+  }
+  
+  private static boolean matches(CharSequence chars, int start, int end, String expected) {
+    if (end - start != expected.length()) return false;
+    for (int i = 0; i < expected.length(); i++) {
+      if (chars.charAt(start + i) != expected.charAt(i)) return false;
+    }
+    return true;
+  }
+  
+  private boolean parseHex(CharSequence chars, int start, int end) {
+    try {
+      return set(Double.parseDouble(chars.subSequence(start, end).toString()));
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+  
+  /**
+   * Views a range of a char[] as a character sequence without copying.
+   */
+  private static class CharArraySequence implements CharSequence {
+    
+    private char[] chars;
+    private int offset;
+    private int length;
+    
+    CharArraySequence(char[] chars, int offset, int length) {
+      this.chars = chars;
+      this.offset = offset;
+      this.length = length;
+    }
+    
+    @Override
+    public int length() {
+      return length;
+    }
+    
+    @Override
+    public char charAt(int index) {
+      return chars[offset + index];
+    }
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(chars, offset + start, end - start);
+    }
+    
+    @Override
+    public String toString() {
+      return new String(chars, offset, length);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package ml;
+
+import learner.Learner;
+import learner.features.FeatureType;
+import learner.scoring.EncodedQuery;
+
+/**
+ * Maps instance features to the columns of a learner through a schema once,
+ * so instances can be classified without converting them to experiences.
+ * 
+ * Each thread encodes instances into its own reusable query.
+ * 
+ * @author woodser
+ */
+class QueryPlan {
+  
+  private Learner learner;
+  private Schema schema;
+  private ThreadLocal<EncodedQuery> queries;
+  
+  /**
+   * Compiles a plan for the given learner.
+   * 
+   * @param learner is the learner to plan queries against, which must have experience
+   * @param schema maps instance features to the learner's columns
+   */
+  QueryPlan(final Learner learner, Schema schema) {
+    if (learner.getStore().isEmpty()) throw new RuntimeException("Learner must have experience");
+    if (schema.size() != learner.getStore().getFeatureSize()) throw new MlException("Expected " + learner.getStore().getFeatureSize() + " features but got " + schema.size());
+    this.learner = learner;
+    this.schema = schema;
+    this.queries = new ThreadLocal<EncodedQuery>() {
+      @Override
+      protected EncodedQuery initialValue() {
+        return learner.newQuery();
+      }
+    };
+  }
+  
+  /**
+   * Gets the learner the plan queries.
+   * 
+   * @return Learner is the learner the plan queries
+   */
+  Learner getLearner() {
+    return learner;
+  }
+  
+  /**
+   * Encodes an instance's features into the calling thread's query.
+   * 
+   * @param instance is the instance to encode
+   * @return EncodedQuery is the thread's query holding the instance's features
+   * @throws MlException if the instance's features do not match the schema
+   */
+  EncodedQuery encode(Instance instance) {
+    schema.checkSize(instance);
+    EncodedQuery query = queries.get();
+    for (int col = 0; col < schema.size(); col++) {
+      Object value = schema.getValue(instance, col);
+      if (schema.getType(col) == FeatureType.CONTINUOUS) query.setContinuous(col, (Double) value);
+      else query.setNominal(col, (String) value);
+    }
+    return query;
+  }
+}
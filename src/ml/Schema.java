@@ -0,0 +1,187 @@
+package ml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.FeatureType;
+import learner.features.NominalFeature;
+import learner.store.ExperienceStore;
+
+/**
+ * Names and types of the features a model learns from.
+ * 
+ * Feature names map to columns in sorted order.  Every instance trained on or
+ * classified must have exactly the schema's features, with Double values for
+ * continuous features and String values for nominal features.  The nominal
+ * dictionaries are kept with the columns in the model's experience store,
+ * which also records the schema's names so it is exported with the model.
+ * 
+ * @author woodser
+ */
+public class Schema {
+  
+  private String[] names;                // feature name of each column
+  private FeatureType[] types;           // feature type of each column
+  private Map<String, Integer> columns;  // column of each feature name
+  
+  /**
+   * Constructs a schema.
+   * 
+   * @param names are the feature names in column order
+   * @param types are the feature types in column order
+   */
+  public Schema(String[] names, FeatureType[] types) {
+    if (names.length != types.length) throw new MlException("Expected " + names.length + " feature types but got " + types.length);
+    this.names = names.clone();
+    this.types = types.clone();
+    this.columns = new HashMap<String, Integer>();
+    for (int col = 0; col < names.length; col++) {
+      if (columns.put(names[col], col) != null) throw new MlException("Duplicate feature '" + names[col] + "'");
+    }
+  }
+  
+  /**
+   * Infers a schema from an instance's feature names and value types.
+   * 
+   * @param instance is the instance to infer the schema from
+   * @return Schema is the inferred schema
+   */
+  public static Schema infer(Instance instance) {
+    String[] names = getSortedNames(instance);
+    FeatureType[] types = new FeatureType[names.length];
+    for (int col = 0; col < names.length; col++) {
+      Object value = instance.getFeatures().get(names[col]);
+      if (value instanceof Double) types[col] = FeatureType.CONTINUOUS;
+      else if (value instanceof String) types[col] = FeatureType.NOMINAL;
+      else throw new MlException("Feature '" + names[col] + "' must be a Double or String but got " + getTypeName(value));
+    }
+    return new Schema(names, types);
+  }
+  
+  /**
+   * Gets the schema of a store's columns.
+   * 
+   * @param store is the store whose columns to get the schema of, which must have experience
+   * @param instance names the columns in sorted order if the store's columns are unnamed
+   * @return Schema is the schema of the store's columns
+   */
+  public static Schema of(ExperienceStore store, Instance instance) {
+    String[] names = store.getNames();
+    if (names == null) {
+      names = getSortedNames(instance);
+      if (names.length != store.getFeatureSize()) throw new MlException("Expected " + store.getFeatureSize() + " features but got " + names.length);
+    }
+    FeatureType[] types = new FeatureType[store.getFeatureSize()];
+    for (int col = 0; col < types.length; col++) types[col] = store.getType(col);
+    return new Schema(names, types);
+  }
+  
+  /**
+   * Gets the number of features.
+   * 
+   * @return int is the number of features
+   */
+  public int size() {
+    return names.length;
+  }
+  
+  /**
+   * Gets the feature names in column order.
+   * 
+   * @return String[] are the feature names in column order
+   */
+  public String[] getNames() {
+    return names.clone();
+  }
+  
+  /**
+   * Gets the name of a column's feature.
+   * 
+   * @param col is the column
+   * @return String is the name of the column's feature
+   */
+  public String getName(int col) {
+    return names[col];
+  }
+  
+  /**
+   * Gets the type of a column's feature.
+   * 
+   * @param col is the column
+   * @return FeatureType is the type of the column's feature
+   */
+  public FeatureType getType(int col) {
+    return types[col];
+  }
+  
+  /**
+   * Gets the column of a feature.
+   * 
+   * @param name is the name of the feature
+   * @return int is the column of the feature or -1 if the schema has no such feature
+   */
+  public int getColumn(String name) {
+    Integer col = columns.get(name);
+    return col == null ? -1 : col;
+  }
+  
+  /**
+   * Validates that an instance has the schema's number of features.
+   * 
+   * @param instance is the instance to validate
+   * @throws MlException if the instance has a different number of features
+   */
+  public void checkSize(Instance instance) {
+    if (instance.getFeatures().size() != names.length) throw new MlException("Expected " + names.length + " features but got " + instance.getFeatures().size());
+  }
+  
+  /**
+   * Gets the value of a column's feature from an instance, validating its type.
+   * 
+   * @param instance is the instance to get the value from
+   * @param col is the column of the feature
+   * @return Object is the Double or String value of the feature
+   * @throws MlException if the instance is missing the feature or its value has the wrong type
+   */
+  public Object getValue(Instance instance, int col) {
+    Object value = instance.getFeatures().get(names[col]);
+    if (value == null) throw new MlException("Missing feature '" + names[col] + "'");
+    if (types[col] == FeatureType.CONTINUOUS ? !(value instanceof Double) : !(value instanceof String)) {
+      throw new MlException("Feature '" + names[col] + "' must be " + (types[col] == FeatureType.CONTINUOUS ? "a Double" : "a String") + " but got " + getTypeName(value));
+    }
+    return value;
+  }
+  
+  /**
+   * Converts an instance's features to features in column order, validating them.
+   * 
+   * @param instance is the instance to convert
+   * @return List<Feature> are the instance's features in column order
+   * @throws MlException if the instance's features do not match the schema
+   */
+  public List<Feature> getFeatures(Instance instance) {
+    checkSize(instance);
+    List<Feature> features = new ArrayList<Feature>(names.length);
+    for (int col = 0; col < names.length; col++) {
+      Object value = getValue(instance, col);
+      if (types[col] == FeatureType.CONTINUOUS) features.add(new ContinuousFeature((Double) value));
+      else features.add(new NominalFeature((String) value));
+    }
+    return features;
+  }
+  
+  // ----------------------------- PRIVATE HELPERS ----------------------------
+  
+  private static String[] getSortedNames(Instance instance) {
+    return new TreeSet<String>(instance.getFeatures().keySet()).toArray(new String[instance.getFeatures().size()]);
+  }
+  
+  private static String getTypeName(Object value) {
+    return value == null ? "null" : value.getClass().getSimpleName();
+  }
+}
@@ -0,0 +1,121 @@
+package test.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark harness with warmup and measurement iterations.
+ * 
+ * Each iteration runs an operation repeatedly for a fixed time and records the
+ * average time per operation.  Warmup iterations let the JIT compile the
+ * operation before measurement and are not reported.  Results of operations
+ * are consumed by a sink so the JIT cannot eliminate them.
+ * 
+ * @author woodser
+ */
+public class Benchmark {
+  
+  private static volatile Object sink;  // consumes operation results
+  
+  private int warmupIterations;
+  private int measurementIterations;
+  private long iterationMillis;
+  
+  public Benchmark(int warmupIterations, int measurementIterations, long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measurementIterations = measurementIterations;
+    this.iterationMillis = iterationMillis;
+  }
+  
+  /**
+   * Operation to benchmark.
+   */
+  public interface Operation {
+    
+    /**
+     * Runs the operation once.
+     * 
+     * @return Object is the result of the operation which is consumed by the benchmark
+     * @throws Exception if the operation fails
+     */
+    public Object run() throws Exception;
+  }
+  
+  /**
+   * Runs an operation through warmup and measurement iterations.
+   * 
+   * @param name is the name of the benchmark
+   * @param operation is the operation to benchmark
+   * @return Result is the measured time per operation
+   */
+  public Result run(String name, Operation operation) {
+    try {
+      for (int i = 0; i < warmupIterations; i++) iterate(operation);
+      double[] nanosPerOp = new double[measurementIterations];
+      for (int i = 0; i < measurementIterations; i++) nanosPerOp[i] = iterate(operation);
+      return new Result(name, nanosPerOp);
+    } catch (Exception e) {
+      throw new RuntimeException("Benchmark " + name + " failed", e);
+    }
+  }
+  
+  /**
+   * Runs an operation repeatedly for one iteration.
+   * 
+   * @param operation is the operation to run
+   * @return double is the average nanoseconds per operation
+   * @throws Exception if the operation fails
+   */
+  private double iterate(Operation operation) throws Exception {
+    long end = System.nanoTime() + iterationMillis * 1000000;
+    long start = System.nanoTime();
+    long ops = 0;
+    long now;
+    do {
+      sink = operation.run();
+      ops++;
+    } while ((now = System.nanoTime()) < end);
+    return (double) (now - start) / ops;
+  }
+  
+  /**
+   * Measured time per operation over the measurement iterations.
+   */
+  public static class Result {
+    
+    private String name;
+    private double[] nanosPerOp;
+    
+    public Result(String name, double[] nanosPerOp) {
+      this.name = name;
+      this.nanosPerOp = nanosPerOp;
+    }
+    
+    public String getName() {
+      return name;
+    }
+    
+    public double getMean() {
+      double sum = 0;
+      for (double val : nanosPerOp) sum += val;
+      return sum / nanosPerOp.length;
+    }
+    
+    public double getStdDev() {
+      double mean = getMean();
+      double sum = 0;
+      for (double val : nanosPerOp) sum += (val - mean) * (val - mean);
+      return nanosPerOp.length < 2 ? 0 : Math.sqrt(sum / (nanosPerOp.length - 1));
+    }
+    
+    public double getMedian() {
+      double[] sorted = nanosPerOp.clone();
+      Arrays.sort(sorted);
+      int mid = sorted.length / 2;
+      return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+    
+    public String toString() {
+      return String.format("%-72s %12.3f ms/op  +- %10.3f  (median %.3f)", name, getMean() / 1e6, getStdDev() / 1e6, getMedian() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ml.Instance;
+import ml.MlUtils;
+
+/**
+ * Provides instances to benchmark with from bundled CSV files or a synthetic generator.
+ * 
+ * @author woodser
+ */
+public class BenchmarkData {
+  
+  private static final int NUM_OUTCOMES = 3;
+  private static final int NUM_NOMINAL_VALUES = 5;
+  
+  /**
+   * Loads instances from a bundled CSV file without headers.
+   * 
+   * @param name is the name of the CSV file in resources without extension, e.g. abalone
+   * @return List<Instance> are the instances of the file
+   * @throws IOException if the file cannot be read
+   */
+  public static List<Instance> load(String name) throws IOException {
+    return MlUtils.loadInstances(new File("resources/" + name + ".csv"), false);
+  }
+  
+  /**
+   * Generates classified instances whose features are correlated with their outcome.
+   * 
+   * Continuous features are normally distributed around a center per outcome and
+   * nominal features favor one value per outcome.
+   * 
+   * @param rows is the number of instances to generate
+   * @param features is the number of features per instance
+   * @param nominalFraction is the fraction of features which are nominal
+   * @param seed seeds the generator so data is reproducible
+   * @return List<Instance> are the generated instances
+   */
+  public static List<Instance> synthetic(int rows, int features, double nominalFraction, long seed) {
+    Random random = new Random(seed);
+    int numNominal = (int) Math.round(features * nominalFraction);
+    List<Instance> instances = new ArrayList<Instance>(rows);
+    for (int row = 0; row < rows; row++) {
+      int outcome = random.nextInt(NUM_OUTCOMES);
+      Map<String, Object> values = new HashMap<String, Object>();
+      for (int col = 0; col < features; col++) {
+        String name = String.format("f%02d", col);
+        if (col < numNominal) {
+          int value = random.nextDouble() < 0.6 ? outcome : random.nextInt(NUM_NOMINAL_VALUES);
+          values.put(name, "v" + value);
+        } else {
+          values.put(name, 1 + 0.5 * outcome + 0.4 * random.nextGaussian());
+        }
+      }
+      instances.add(new Instance(values, "outcome" + outcome));
+    }
+    return instances;
+  }
+}
@@ -0,0 +1,168 @@
+package test.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import learner.Experience;
+import learner.Learner;
+import learner.features.Feature;
+import ml.Instance;
+import ml.ModelLearner;
+import test.benchmark.Benchmark.Operation;
+import test.benchmark.Benchmark.Result;
+
+/**
+ * Benchmarks training, classification and export/load across datasets and parameters.
+ * 
+ * Arguments are optional key=value pairs with comma-separated values, e.g.
+ * 
+ *   dataset=synthetic,abalone,salary rows=1000,5000 features=4,8,12 nominal=0,0.5
+ *   maxSize=0,2 warmup=3 iterations=5 millis=1000 queries=200
+ * 
+ * Rows caps the number of training instances of the bundled datasets.  Features
+ * and nominal (fraction of nominal features) only apply to synthetic data.
+ * MaxSize is the maximum number of features in a scored combination, 0 for all.
+ * 
+ * @author woodser
+ */
+public class LearnerBenchmarks {
+  
+  private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+  static {
+    DEFAULTS.put("dataset", "synthetic,abalone,salary");
+    DEFAULTS.put("rows", "1000,5000");
+    DEFAULTS.put("features", "4,8,12");
+    DEFAULTS.put("nominal", "0,0.5");
+    DEFAULTS.put("maxSize", "0");
+    DEFAULTS.put("warmup", "3");
+    DEFAULTS.put("iterations", "5");
+    DEFAULTS.put("millis", "1000");
+    DEFAULTS.put("queries", "200");
+  }
+
+  /**
+   * Program entry.
+   * 
+   * @param args are optional key=value parameters
+   * @throws IOException if a bundled dataset cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    Map<String, String> params = new HashMap<String, String>(DEFAULTS);
+    for (String arg : args) {
+      String[] keyVal = arg.split("=", 2);
+      if (keyVal.length != 2 || !DEFAULTS.containsKey(keyVal[0])) throw new IllegalArgumentException("Invalid argument: " + arg);
+      params.put(keyVal[0], keyVal[1]);
+    }
+    Benchmark benchmark = new Benchmark(Integer.parseInt(params.get("warmup")), Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+    int numQueries = Integer.parseInt(params.get("queries"));
+    
+    List<Result> results = new ArrayList<Result>();
+    for (String dataset : split(params.get("dataset"))) {
+      for (String rows : split(params.get("rows"))) {
+        for (String maxSize : split(params.get("maxSize"))) {
+          String suffix = maxSize.equals("0") ? "" : " maxSize=" + maxSize;
+          if (dataset.equals("synthetic")) {
+            for (String features : split(params.get("features"))) {
+              for (String nominal : split(params.get("nominal"))) {
+                List<Instance> instances = BenchmarkData.synthetic(Integer.parseInt(rows) + numQueries, Integer.parseInt(features), Double.parseDouble(nominal), 1);
+                String name = "synthetic rows=" + rows + " features=" + features + " nominal=" + nominal + suffix;
+                results.addAll(run(benchmark, name, instances, numQueries, Integer.parseInt(maxSize)));
+              }
+            }
+          } else {
+            List<Instance> instances = BenchmarkData.load(dataset);
+            int numTraining = Math.min(Integer.parseInt(rows), instances.size() - numQueries);
+            results.addAll(run(benchmark, dataset + " rows=" + numTraining + suffix, instances.subList(0, numTraining + numQueries), numQueries, Integer.parseInt(maxSize)));
+          }
+        }
+      }
+    }
+    
+    // print summary
+    System.out.println();
+    for (Result result : results) System.out.println(result);
+  }
+  
+  /**
+   * Runs all benchmarks for one set of instances.
+   * 
+   * @param benchmark is the benchmark harness
+   * @param name describes the instances
+   * @param instances are the training instances followed by the query instances
+   * @param numQueries is the number of trailing instances to use as queries
+   * @param maxSize is the maximum number of features in a combination scored by the learner, 0 for all
+   * @return List<Result> are the benchmark results
+   */
+  private static List<Result> run(Benchmark benchmark, String name, List<Instance> instances, int numQueries, int maxSize) {
+    final List<Instance> training = instances.subList(0, instances.size() - numQueries);
+    final List<Instance> queries = instances.subList(instances.size() - numQueries, instances.size());
+    final List<Experience> experiences = new ArrayList<Experience>();
+    for (Instance instance : training) experiences.add(ModelLearner.getExperience(instance));
+    final List<List<Feature>> queryFeatures = new ArrayList<List<Feature>>();
+    for (Instance query : queries) queryFeatures.add(ModelLearner.getExperience(query).getFeatures());
+    
+    // train the learner and model under test
+    final Learner learner = new Learner(experiences);
+    learner.setMaxCombinationSize(maxSize);
+    learner.optimize();
+    final ModelLearner model = new ModelLearner();
+    model.addTrainingInstances(training);
+    model.train();
+    final byte[] exported = model.export();
+    
+    List<Result> results = new ArrayList<Result>();
+    results.add(report(benchmark.run(name + " Learner.learn", new Operation() {
+      @Override
+      public Object run() {
+        Learner learner = new Learner();
+        for (Experience experience : experiences) learner.learn(experience);
+        return learner;
+      }
+    })));
+    results.add(report(benchmark.run(name + " Learner.getDistribution", new Operation() {
+      private int idx;
+      
+      @Override
+      public Object run() {
+        return learner.getDistribution(queryFeatures.get(idx++ % queryFeatures.size()));
+      }
+    })));
+    results.add(report(benchmark.run(name + " ModelLearner.classify", new Operation() {
+      private int idx;
+      
+      @Override
+      public Object run() {
+        return model.classify(new Instance(queries.get(idx++ % queries.size()).getFeatures()));
+      }
+    })));
+    results.add(report(benchmark.run(name + " ModelLearner.export", new Operation() {
+      @Override
+      public Object run() {
+        return model.export();
+      }
+    })));
+    results.add(report(benchmark.run(name + " ModelLearner.load", new Operation() {
+      private ModelLearner target = new ModelLearner();
+      
+      @Override
+      public Object run() {
+        target.load(exported);
+        return target;
+      }
+    })));
+    return results;
+  }
+  
+  private static Result report(Result result) {
+    System.out.println(result);
+    return result;
+  }
+  
+  private static List<String> split(String values) {
+    return Arrays.asList(values.split(","));
+  }
+}
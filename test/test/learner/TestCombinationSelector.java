@@ -0,0 +1,169 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+import learner.scoring.CombinationSelector;
+import learner.scoring.Combinations;
+import learner.scoring.EncodedQuery;
+import learner.scoring.SubsetScorer;
+import learner.store.ExperienceStore;
+
+/**
+ * Test selecting and scoring informative feature combinations.
+ * 
+ * @author woodser
+ */
+public class TestCombinationSelector {
+  
+  @Test
+  public void testSelectsInformativeCombination() {
+    Random random = new Random(59);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 2000; i++) {
+      List<Feature> features = new ArrayList<Feature>();
+      boolean a = random.nextBoolean();
+      boolean b = random.nextBoolean();
+      for (int col = 0; col < 6; col++) features.add(new NominalFeature("v" + random.nextInt(2)));
+      features.set(1, new NominalFeature(String.valueOf(a)));
+      features.set(4, new NominalFeature(String.valueOf(b)));
+      store.add(features, a ^ b);
+    }
+    
+    // neither feature predicts the outcome alone but together they determine it
+    Combinations combinations = CombinationSelector.select(store, 5);
+    assertEquals(5, combinations.size());
+    assertEquals(1L << 1 | 1L << 4, combinations.get(combinations.getStart(2)));
+    for (int i = 1; i < combinations.size(); i++) assertTrue(Long.bitCount(combinations.get(i - 1)) <= Long.bitCount(combinations.get(i)));
+  }
+  
+  @Test
+  public void testSelectedScoresMatchAllScores() {
+    Random random = new Random(61);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 1000; i++) store.add(getFeatures(random, 6), random.nextInt(3));
+    Combinations combinations = CombinationSelector.select(store, 20);
+    int numOutcomes = store.getOutcomeDictionary().size();
+    for (int i = 0; i < 20; i++) {
+      List<Feature> query = getFeatures(random, 6);
+      double[] all = SubsetScorer.score(store, new EncodedQuery(store, query)).clone();
+      double[] selected = SubsetScorer.score(store, new EncodedQuery(store, query), combinations, null);
+      for (int idx = 0; idx < combinations.size(); idx++) {
+        for (int outcome = 0; outcome < numOutcomes; outcome++) assertEquals(all[(int) combinations.get(idx) * numOutcomes + outcome], selected[idx * numOutcomes + outcome], 0);
+      }
+    }
+    
+    // selecting every combination is the same as scoring all of them
+    Learner all = new Learner();
+    Learner limited = new Learner();
+    for (int i = 0; i < 500; i++) {
+      List<Feature> features = getFeatures(random, 6);
+      all.learn(features, i % 3);
+      limited.learn(features, i % 3);
+    }
+    limited.setMaxCombinations(63);
+    List<Feature> query = getFeatures(random, 6);
+    assertEquals(all.getDistribution(query), limited.getDistribution(query));
+  }
+  
+  @Test
+  public void testWideFeatures() {
+    Random random = new Random(67);
+    Learner learner = new Learner();
+    learner.setMaxCombinations(100);
+    for (int i = 0; i < 1000; i++) learner.learn(getFeatures(random, 50), random.nextInt(2));
+    learner.optimize();
+    Map<Object, Double> distribution = learner.getDistribution(getFeatures(random, 50));
+    assertEquals(2, distribution.size());
+  }
+  
+  @Test
+  public void testMaxCombinationSize() {
+    Random random = new Random(73);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 1000; i++) store.add(getFeatures(random, 6), random.nextInt(3));
+    Combinations combinations = Combinations.upToSize(6, 2);
+    int numOutcomes = store.getOutcomeDictionary().size();
+    for (int i = 0; i < 20; i++) {
+      List<Feature> query = getFeatures(random, 6);
+      double[] all = SubsetScorer.score(store, new EncodedQuery(store, query)).clone();
+      double[] limited = SubsetScorer.score(store, new EncodedQuery(store, query), combinations, null);
+      for (int idx = 0; idx < combinations.size(); idx++) {
+        for (int outcome = 0; outcome < numOutcomes; outcome++) assertEquals(all[(int) combinations.get(idx) * numOutcomes + outcome], limited[idx * numOutcomes + outcome], 0);
+      }
+    }
+    
+    // a maximum of every feature is the same as no maximum
+    Learner all = new Learner();
+    Learner limited = new Learner();
+    for (int i = 0; i < 500; i++) {
+      List<Feature> features = getFeatures(random, 6);
+      all.learn(features, i % 3);
+      limited.learn(features, i % 3);
+    }
+    limited.setMaxCombinationSize(6);
+    List<Feature> query = getFeatures(random, 6);
+    assertEquals(all.getDistribution(query), limited.getDistribution(query));
+    
+    // smaller maximums score fewer combinations
+    for (int maxSize = 1; maxSize < 6; maxSize++) {
+      limited.setMaxCombinationSize(maxSize);
+      limited.optimize();
+      assertEquals(3, limited.getDistribution(query).size());
+    }
+    
+    // wide learners may limit combination size instead of number
+    Learner wide = new Learner();
+    wide.setMaxCombinationSize(2);
+    for (int i = 0; i < 200; i++) wide.learn(getFeatures(random, 40), random.nextInt(2));
+    assertEquals(2, wide.getDistribution(getFeatures(random, 40)).size());
+  }
+  
+  @Test
+  public void testWeightedSelectionMatchesSelection() {
+    Random random = new Random(83);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 3000; i++) {
+      List<Feature> features = new ArrayList<Feature>();
+      int value = random.nextInt(2);
+      for (int col = 0; col < 6; col++) features.add(col % 2 == 0 ? new ContinuousFeature(random.nextInt(3)) : new NominalFeature("v" + (col == 1 ? value : random.nextInt(2))));
+      store.add(features, value + random.nextInt(2));
+    }
+    
+    // every row is sampled, so weighted rows count the same experiences
+    ExperienceStore deduplicated = store.deduplicate(0);
+    assertTrue(deduplicated.size() < store.size() / 2);
+    Combinations combinations = CombinationSelector.select(store, 12);
+    Combinations weighted = CombinationSelector.select(deduplicated, 12);
+    assertEquals(combinations.size(), weighted.size());
+    for (int idx = 0; idx < combinations.size(); idx++) assertEquals(combinations.get(idx), weighted.get(idx));
+  }
+  
+  @Test(expected = RuntimeException.class)
+  public void testWideFeaturesRequireMaximum() {
+    Random random = new Random(71);
+    Learner learner = new Learner();
+    for (int i = 0; i < 10; i++) learner.learn(getFeatures(random, 40), random.nextInt(2));
+    learner.getDistribution(getFeatures(random, 40));
+  }
+  
+  private static List<Feature> getFeatures(Random random, int numFeatures) {
+    List<Feature> features = new ArrayList<Feature>();
+    for (int col = 0; col < numFeatures; col++) {
+      if (col % 2 == 0) features.add(new ContinuousFeature(random.nextDouble()));
+      else features.add(new NominalFeature("v" + random.nextInt(3)));
+    }
+    return features;
+  }
+}
@@ -0,0 +1,63 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import learner.scoring.Combinations;
+
+/**
+ * Test bitmask index combinations.
+ * 
+ * @author woodser
+ */
+public class TestCombinations {
+
+  @Test
+  public void testAll() {
+    Combinations combinations = Combinations.all(10);
+    assertEquals(1023, combinations.size());
+    assertEquals(10, combinations.getMaxSize());
+    Set<Long> seen = new HashSet<Long>();
+    for (int size = 1; size <= 10; size++) {
+      for (int idx = combinations.getStart(size); idx < combinations.getEnd(size); idx++) {
+        assertEquals(size, Long.bitCount(combinations.get(idx)));
+        if (idx > combinations.getStart(size)) assertTrue(combinations.get(idx) > combinations.get(idx - 1));
+        assertTrue(seen.add(combinations.get(idx)));
+      }
+    }
+    assertEquals(1023, seen.size());
+    int count = 0;
+    for (long mask : combinations) {
+      assertTrue(seen.contains(mask));
+      count++;
+    }
+    assertEquals(1023, count);
+  }
+
+  @Test
+  public void testUpToSize() {
+    Combinations combinations = Combinations.upToSize(40, 3);
+    assertEquals(40 + 780 + 9880, combinations.size());
+    assertEquals(3, combinations.getMaxSize());
+    assertEquals(40, combinations.getEnd(1) - combinations.getStart(1));
+    assertEquals(9880, combinations.getEnd(3) - combinations.getStart(3));
+    Set<Long> seen = new HashSet<Long>();
+    for (int idx = 0; idx < combinations.size(); idx++) {
+      assertTrue(Long.bitCount(combinations.get(idx)) <= 3);
+      assertTrue(Long.numberOfLeadingZeros(combinations.get(idx)) >= 64 - 40);
+      assertTrue(seen.add(combinations.get(idx)));
+    }
+
+    // combinations up to every size are all combinations
+    Combinations all = Combinations.all(10);
+    Combinations upToSize = Combinations.upToSize(10, 10);
+    assertEquals(all.size(), upToSize.size());
+    for (int idx = 0; idx < all.size(); idx++) assertEquals(all.get(idx), upToSize.get(idx));
+  }
+
+}
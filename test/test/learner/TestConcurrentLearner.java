@@ -0,0 +1,150 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import learner.ConcurrentLearner;
+import learner.Experience;
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+
+/**
+ * Test learning while serving queries from snapshots.
+ * 
+ * @author woodser
+ */
+public class TestConcurrentLearner {
+  
+  @Test
+  public void testSnapshotIsolation() {
+    Random random = new Random(47);
+    List<Experience> experiences = new ArrayList<Experience>();
+    for (int i = 0; i < 3000; i++) experiences.add(getExperience(random, i));
+    Learner learner = new Learner(experiences.subList(0, 1000));
+    learner.optimize();
+    Learner snapshot = learner.snapshot();
+    learner.learnAll(experiences.subList(1000, 2000));
+    
+    // learning with the snapshot does not affect the learner
+    Learner snapshotCopy = snapshot.snapshot();
+    snapshotCopy.learnAll(experiences.subList(2000, 3000));
+    Learner expected = new Learner(experiences.subList(0, 1000));
+    Learner expectedLearner = new Learner(experiences.subList(0, 2000));
+    Learner expectedCopy = new Learner(experiences.subList(0, 1000));
+    expectedCopy.learnAll(experiences.subList(2000, 3000));
+    for (int i = 0; i < 20; i++) {
+      List<Feature> query = getExperience(random, 3000).getFeatures();
+      assertEquals(expected.getDistribution(query), snapshot.getDistribution(query));
+      assertEquals(expectedLearner.getDistribution(query), learner.getDistribution(query));
+      assertEquals(expectedCopy.getDistribution(query), snapshotCopy.getDistribution(query));
+    }
+  }
+  
+  @Test
+  public void testConcurrentQueries() throws InterruptedException {
+    Random random = new Random(53);
+    final List<Experience> experiences = new ArrayList<Experience>();
+    for (int i = 0; i < 3000; i++) experiences.add(getExperience(random, i));
+    final ConcurrentLearner learner = new ConcurrentLearner(new Learner(experiences.subList(0, 500)));
+    learner.optimize();
+    
+    // query snapshots while learning
+    final AtomicBoolean learning = new AtomicBoolean(true);
+    final List<Object[]> samples = Collections.synchronizedList(new ArrayList<Object[]>());
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final Random readerRandom = new Random(t);
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (learning.get()) {
+              Learner snapshot = learner.getSnapshot();
+              List<Feature> query = getExperience(readerRandom, 3000).getFeatures();
+              Map<Object, Double> distribution = snapshot.getDistribution(query);
+              if (readerRandom.nextInt(50) == 0 && samples.size() < 20) samples.add(new Object[] {snapshot.getStore().size(), query, distribution});
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+    for (int i = 500; i < 3000; i++) {
+      if (i % 500 == 0) learner.learnAll(experiences.subList(i, i + 100));
+      if (i % 500 < 100) continue;
+      learner.learn(experiences.get(i));
+    }
+    learning.set(false);
+    for (Thread reader : readers) reader.join();
+    assertTrue(errors.toString(), errors.isEmpty());
+    
+    // each sampled distribution matches a learner of the experiences in its snapshot
+    for (Object[] sample : samples) {
+      @SuppressWarnings("unchecked")
+      List<Feature> query = (List<Feature>) sample[1];
+      assertEquals(new Learner(experiences.subList(0, (Integer) sample[0])).getDistribution(query), sample[2]);
+    }
+    List<Feature> query = getExperience(random, 3000).getFeatures();
+    assertEquals(new Learner(experiences).getDistribution(query), learner.getDistribution(query));
+  }
+  
+  @Test
+  public void testPublishingWithTablesCostsLittleMore() {
+    Random random = new Random(59);
+    List<Experience> experiences = new ArrayList<Experience>();
+    for (int i = 0; i < 13000; i++) experiences.add(getNominalExperience(random));
+    
+    // publishing after every learn with many tables costs about as much as with none
+    long withTables = Long.MAX_VALUE;
+    long withoutTables = Long.MAX_VALUE;
+    for (int round = 0; round < 2; round++) {
+      withTables = Math.min(withTables, getLearnTime(experiences, new Learner().getTableBudget()));
+      withoutTables = Math.min(withoutTables, getLearnTime(experiences, 0));
+    }
+    assertTrue("Learning with tables took " + withTables / 1000000 + " ms, without " + withoutTables / 1000000 + " ms", withTables < 4 * withoutTables + 100000000L);
+  }
+  
+  /**
+   * Gets the nanoseconds to learn the experiences after the first 10000 while publishing after every learn.
+   */
+  private static long getLearnTime(List<Experience> experiences, long tableBudget) {
+    Learner optimized = new Learner(experiences.subList(0, 10000));
+    optimized.setTableBudget(tableBudget);
+    optimized.optimize();
+    ConcurrentLearner learner = new ConcurrentLearner(optimized);
+    long start = System.nanoTime();
+    for (int i = 10000; i < experiences.size(); i++) learner.learn(experiences.get(i));
+    return System.nanoTime() - start;
+  }
+  
+  private static Experience getNominalExperience(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextGaussian()));
+    for (int col = 0; col < 8; col++) features.add(new NominalFeature("v" + random.nextInt(6)));
+    return new Experience(features, random.nextInt(3));
+  }
+  
+  private static Experience getExperience(Random random, int i) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextInt(3) != 0 ? 0 : random.nextDouble()));
+    features.add(new NominalFeature("a" + random.nextInt(1 + i / 20)));
+    features.add(new NominalFeature("b" + random.nextInt(4)));
+    features.add(new ContinuousFeature(random.nextGaussian()));
+    return new Experience(features, random.nextInt(3 + i / 1000));
+  }
+}
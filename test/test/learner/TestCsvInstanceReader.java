@@ -0,0 +1,65 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import ml.CsvInstanceReader;
+import ml.Instance;
+import ml.MlException;
+import ml.MlUtils;
+import ml.ModelLearner;
+
+/**
+ * Test streaming instances from CSV.
+ * 
+ * @author woodser
+ */
+public class TestCsvInstanceReader {
+
+  @Test
+  public void testTypeInference() throws IOException {
+    String csv = "size,code,label\n1.5,1,yes\n2.5,a,no\n3,2,yes\n";
+    try (CsvInstanceReader reader = new CsvInstanceReader(new StringReader(csv), true)) {
+      assertTrue(reader.isContinuous(0));
+      assertFalse(reader.isContinuous(1));
+      Instance instance = reader.next();
+      assertEquals(1.5, instance.getFeatures().get("size"));
+      assertEquals("1", instance.getFeatures().get("code"));
+      assertEquals("yes", instance.getClassification());
+      reader.next();
+      assertEquals("2", reader.next().getFeatures().get("code"));
+      assertNull(reader.next());
+    }
+  }
+  
+  @Test(expected = MlException.class)
+  public void testTypeMismatchAfterSample() throws IOException {
+    String csv = "1.5,yes\n2.5,no\nbig,yes\n";
+    try (CsvInstanceReader reader = new CsvInstanceReader(new StringReader(csv), false, 2)) {
+      while (reader.next() != null);
+    }
+  }
+  
+  @Test
+  public void testStreamIntoModel() throws IOException {
+    File file = File.createTempFile("instances", ".csv");
+    file.deleteOnExit();
+    try (Writer writer = new FileWriter(file)) {
+      for (int i = 0; i < 1000; i++) writer.write(i % 10 + "," + (i % 2 == 0 ? "even" : "odd") + "," + (i % 2 == 0 ? "a" : "b") + "\n");
+    }
+    ModelLearner model = new ModelLearner();
+    assertEquals(1000, MlUtils.addTrainingInstances(file, false, model, 64));
+    Instance instance = new Instance(MlUtils.loadInstances(file, false).get(1).getFeatures());
+    assertEquals("b", model.classify(instance).getClassification());
+  }
+}
@@ -0,0 +1,84 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.CsvTokenizer;
+import ml.MlException;
+import ml.NumberParser;
+
+/**
+ * Test CSV tokenizing and number parsing.
+ * 
+ * @author woodser
+ */
+public class TestCsvTokenizer {
+  
+  @Test
+  public void testFields() throws IOException {
+    String csv = "39, State-gov ,\"Smith, J\",\"say \"\"hi\"\"\"\r\n\n  \na,,\"multi\nline\"\n";
+    try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv))) {
+      assertTrue(tokenizer.next());
+      assertEquals(4, tokenizer.size());
+      assertEquals("39", tokenizer.getString(0));
+      assertEquals("State-gov", tokenizer.getString(1));
+      assertEquals("Smith, J", tokenizer.getString(2));
+      assertEquals("say \"hi\"", tokenizer.getString(3));
+      assertTrue(tokenizer.isNumber(0));
+      assertEquals(39, tokenizer.getDouble(0), 0);
+      assertFalse(tokenizer.isNumber(1));
+      assertTrue(tokenizer.next());
+      assertEquals(3, tokenizer.size());
+      assertEquals("", tokenizer.getString(1));
+      assertEquals("multi\nline", tokenizer.getString(2));
+      assertEquals(5, tokenizer.getLineNumber());
+      assertFalse(tokenizer.next());
+    }
+  }
+  
+  @Test
+  public void testInterning() throws IOException {
+    try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("yes,1\nyes,2\n"))) {
+      tokenizer.next();
+      String first = tokenizer.getString(0);
+      tokenizer.next();
+      assertSame(first, tokenizer.getString(0));
+    }
+  }
+  
+  @Test(expected = MlException.class)
+  public void testUnterminatedQuote() throws IOException {
+    try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a,\"b\n"))) {
+      tokenizer.next();
+    }
+  }
+  
+  @Test
+  public void testNumbersMatchJdk() {
+    NumberParser parser = new NumberParser();
+    String[] numbers = { "0", "-0", "+1", "1.", ".5", "0.455", "-12.75e-3", "1E10", "123456789012345678901234", "0.1000000000000000055511151231257827", "4.9e-324", "1.7976931348623157e308", "1e400", "NaN", "-Infinity", "2.5d", "1.5f", "0x1p3", " 7 " };
+    for (String number : numbers) {
+      assertTrue(number, parser.parse(number));
+      assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(parser.getValue()));
+    }
+    Random random = new Random(7);
+    for (int i = 0; i < 100000; i++) {
+      String number = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+      assertTrue(parser.parse(number));
+      assertEquals(number, Double.parseDouble(number), parser.getValue(), 0);
+      String decimal = random.nextInt(100000) + "." + random.nextInt(1000);
+      assertTrue(parser.parse(decimal));
+      assertEquals(decimal, Double.parseDouble(decimal), parser.getValue(), 0);
+    }
+    String[] nonNumbers = { "", " ", "-", ".", "e5", "1e", "1e+", "1.2.3", "Never-married", "NaNa", "Inf", "12abc", "0x" };
+    for (String nonNumber : nonNumbers) assertFalse(nonNumber, parser.parse(nonNumber));
+  }
+}
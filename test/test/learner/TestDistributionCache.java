@@ -0,0 +1,102 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+import learner.scoring.DistributionCache;
+
+/**
+ * Test caching distributions of repeated queries.
+ * 
+ * @author woodser
+ */
+public class TestDistributionCache {
+  
+  @Test
+  public void testRepeatedQueries() {
+    Random random = new Random(37);
+    Learner learner = new Learner();
+    for (int i = 0; i < 500; i++) learner.learn(getFeatures(random), random.nextInt(3));
+    DistributionCache cache = new DistributionCache(100, Long.MAX_VALUE);
+    learner.setDistributionCache(cache);
+    List<Feature> query = getFeatures(random);
+    Map<Object, Double> expected = learner.getDistribution(query);
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    
+    // cached distributions are copies
+    expected.put("modified", 1.0);
+    Map<Object, Double> cached = learner.getDistribution(query);
+    expected.remove("modified");
+    assertEquals(expected, cached);
+    assertEquals(1, cache.getHits());
+    
+    // unseen nominal values encode the same
+    List<Feature> unseen = new ArrayList<Feature>(query);
+    unseen.set(1, new NominalFeature("unseen1"));
+    learner.getDistribution(unseen);
+    unseen.set(1, new NominalFeature("unseen2"));
+    learner.getDistribution(unseen);
+    assertEquals(2, cache.getHits());
+    
+    // minimum similarity is part of the key
+    learner.setMinSimilarity(0.5);
+    learner.getDistribution(query);
+    assertEquals(2, cache.getHits());
+    learner.setMinSimilarity(0);
+    
+    // learning invalidates cached distributions
+    learner.learn(query, "new");
+    Map<Object, Double> learned = learner.getDistribution(query);
+    assertTrue(learned.containsKey("new"));
+    assertEquals(2, cache.getHits());
+    assertEquals(learned, learner.getDistribution(query));
+    assertEquals(3, cache.getHits());
+  }
+  
+  @Test
+  public void testEviction() {
+    Random random = new Random(41);
+    Learner learner = new Learner();
+    for (int i = 0; i < 200; i++) learner.learn(getFeatures(random), random.nextInt(3));
+    DistributionCache cache = new DistributionCache(10, Long.MAX_VALUE);
+    learner.setDistributionCache(cache);
+    List<List<Feature>> queries = new ArrayList<List<Feature>>();
+    for (int i = 0; i < 11; i++) queries.add(getFeatures(random));
+    for (List<Feature> query : queries) learner.getDistribution(query);
+    assertEquals(10, cache.size());
+    assertEquals(1, cache.getEvictions());
+    
+    // the least recently used query was evicted
+    learner.getDistribution(queries.get(10));
+    learner.getDistribution(queries.get(0));
+    assertEquals(1, cache.getHits());
+    assertEquals(12, cache.getMisses());
+    
+    // byte bound
+    DistributionCache small = new DistributionCache(10, cache.getBytes() / 5);
+    learner.setDistributionCache(small);
+    for (List<Feature> query : queries) learner.getDistribution(query);
+    assertTrue(small.size() < 3);
+    assertTrue(small.getBytes() <= small.getMaxBytes());
+  }
+  
+  private static List<Feature> getFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextDouble()));
+    features.add(new NominalFeature("v" + random.nextInt(4)));
+    features.add(new ContinuousFeature(random.nextDouble()));
+    return features;
+  }
+}
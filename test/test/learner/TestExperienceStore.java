@@ -0,0 +1,95 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import learner.Experience;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.FeatureType;
+import learner.features.NominalFeature;
+import learner.store.ExperienceStore;
+
+/**
+ * Test the columnar experience store.
+ * 
+ * @author woodser
+ */
+public class TestExperienceStore {
+
+  @Test
+  public void testColumns() {
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 100; i++) {
+      store.add(Arrays.asList(new Feature[] {new ContinuousFeature(i), new NominalFeature(i % 2 == 0 ? "even" : "odd")}), i % 3);
+    }
+    assertEquals(100, store.size());
+    assertEquals(2, store.getFeatureSize());
+    assertEquals(FeatureType.CONTINUOUS, store.getType(0));
+    assertEquals(FeatureType.NOMINAL, store.getType(1));
+    assertEquals(2, store.getDictionary(1).size());
+    assertEquals(3, store.getOutcomeDictionary().size());
+    assertEquals(42.0, store.getContinuous(0).get(42), 0);
+    assertEquals("odd", store.getDictionary(1).decode(store.getNominal(1).get(43)));
+    assertEquals(1, store.getOutcomeDictionary().decode(store.getOutcomes().get(43)));
+  }
+  
+  @Test
+  public void testSerialization() {
+    ExperienceStore store = new ExperienceStore();
+    store.add(Arrays.asList(new Feature[] {new ContinuousFeature(1.5), new NominalFeature("a")}), "x");
+    store.add(Arrays.asList(new Feature[] {new ContinuousFeature(2.5), new NominalFeature("b")}), "y");
+    ExperienceStore copy = SerializationUtils.deserialize(SerializationUtils.serialize(store));
+    assertEquals(2, copy.size());
+    Experience experience = copy.getExperience(1);
+    List<Feature> features = experience.getFeatures();
+    assertEquals(2.5, ((ContinuousFeature) features.get(0)).getVal(), 0);
+    assertEquals("b", ((NominalFeature) features.get(1)).getVal());
+    assertEquals("y", experience.getOutcome());
+    copy.add(Arrays.asList(new Feature[] {new ContinuousFeature(3.5), new NominalFeature("a")}), "x");
+    assertEquals(3, copy.size());
+  }
+  
+  @Test
+  public void testDeduplicate() {
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 100; i++) {
+      store.add(Arrays.asList(new Feature[] {new ContinuousFeature(1 + i % 5 + 0.001 * (i % 2)), new NominalFeature("n" + i % 3)}), "x");
+    }
+    
+    // identical experiences merge into one weighted row in order of first appearance
+    ExperienceStore deduplicated = store.deduplicate(0);
+    assertEquals(30, deduplicated.size());
+    assertEquals(true, deduplicated.isWeighted());
+    assertEquals(false, store.isWeighted());
+    int total = 0;
+    for (int row = 0; row < deduplicated.size(); row++) total += deduplicated.getWeights().get(row);
+    assertEquals(100, total);
+    assertEquals(2.001, ((ContinuousFeature) deduplicated.getExperience(1).getFeatures().get(0)).getVal(), 0);
+    assertEquals(4, deduplicated.getWeights().get(0));
+    
+    // rounding merges nearly identical experiences
+    ExperienceStore rounded = store.deduplicate(2);
+    assertEquals(15, rounded.size());
+    assertEquals(2.0, ((ContinuousFeature) rounded.getExperience(1).getFeatures().get(0)).getVal(), 0);
+    
+    // experiences added afterwards weigh one and merge into the rows when deduplicated again
+    rounded.add(Arrays.asList(new Feature[] {new ContinuousFeature(1), new NominalFeature("n0")}), "x");
+    assertEquals(1, rounded.getWeights().get(15));
+    ExperienceStore merged = rounded.deduplicate(0);
+    assertEquals(15, merged.size());
+    assertEquals(8, merged.getWeights().get(0));
+  }
+  
+  @Test(expected = RuntimeException.class)
+  public void testMixedColumnTypes() {
+    ExperienceStore store = new ExperienceStore();
+    store.add(Arrays.asList(new Feature[] {new ContinuousFeature(1)}), "x");
+    store.add(Arrays.asList(new Feature[] {new NominalFeature("a")}), "x");
+  }
+}
@@ -0,0 +1,117 @@
+package test.learner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+import learner.scoring.ContingencyTables;
+import learner.scoring.EncodedQuery;
+import learner.scoring.InvertedIndex;
+import learner.scoring.PruningIndex;
+import learner.scoring.SubsetScorer;
+import learner.store.ExperienceStore;
+
+/**
+ * Test counting nominal combinations from posting lists.
+ * 
+ * @author woodser
+ */
+public class TestInvertedIndex {
+  
+  @Test
+  public void testCounts() {
+    Random random = new Random(23);
+    ExperienceStore store = new ExperienceStore();
+    InvertedIndex index = new InvertedIndex();
+    for (int i = 0; i < 500; i++) {
+      store.add(getFeatures(random), random.nextInt(3));
+      if (i % 100 == 0) index.update(store);
+    }
+    index.update(store);
+    assertEquals(store.size(), index.size());
+    for (int code = 0; code < store.getDictionary(1).size(); code++) {
+      int count = 0;
+      int[] outcomeCounts = new int[3];
+      for (int row = 0; row < store.size(); row++) {
+        if (store.getNominal(1).get(row) != code) continue;
+        count++;
+        outcomeCounts[store.getOutcomes().get(row)]++;
+      }
+      assertEquals(count, index.getCount(1, code));
+      for (int outcome = 0; outcome < 3; outcome++) assertEquals(outcomeCounts[outcome], index.getOutcomeCount(1, code, outcome));
+    }
+    assertEquals(0, index.getCount(1, -1));
+  }
+  
+  @Test
+  public void testIndexedScoresMatchUnindexed() {
+    Random random = new Random(29);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 2000; i++) store.add(getFeatures(random), random.nextInt(4));
+    InvertedIndex nominalIndex = new InvertedIndex();
+    nominalIndex.update(store);
+    PruningIndex pruningIndex = new PruningIndex(store);
+    for (int i = 0; i < 50; i++) {
+      List<Feature> features = getFeatures(random);
+      if (i % 10 == 0) features.set(3, new NominalFeature("unseen"));
+      double[] expected = SubsetScorer.score(store, new EncodedQuery(store, features)).clone();
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, null, null, null), 0);
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, null, pruningIndex, null), 0);
+    }
+  }
+  
+  @Test
+  public void testTableScoresMatchUnindexed() {
+    Random random = new Random(31);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 2000; i++) store.add(getFeatures(random), random.nextInt(4));
+    InvertedIndex nominalIndex = new InvertedIndex();
+    nominalIndex.update(store);
+    ContingencyTables tables = new ContingencyTables(store, Long.MAX_VALUE);
+    assertEquals(11, tables.getTableCount());
+    ContingencyTables partialTables = new ContingencyTables(store, tables.getBytes() / 2);
+    for (int i = 0; i < 50; i++) {
+      List<Feature> features = getFeatures(random);
+      if (i % 10 == 0) features.set(3, new NominalFeature("unseen"));
+      double[] expected = SubsetScorer.score(store, new EncodedQuery(store, features)).clone();
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, tables, null, null), 0);
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, partialTables, null, null), 0);
+    }
+    
+    // experiences learned after the tables, including new values and outcomes, are counted from the store
+    for (int i = 0; i < 300; i++) {
+      List<Feature> features = getFeatures(random);
+      if (i % 3 == 0) features.set(3, new NominalFeature("new" + random.nextInt(5)));
+      store.add(features, random.nextInt(5));
+    }
+    nominalIndex.update(store);
+    for (int i = 0; i < 50; i++) {
+      List<Feature> features = getFeatures(random);
+      if (i % 5 == 0) features.set(3, new NominalFeature("new" + random.nextInt(5)));
+      double[] expected = SubsetScorer.score(store, new EncodedQuery(store, features)).clone();
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, tables, null, null), 0);
+      assertArrayEquals(expected, SubsetScorer.score(store, new EncodedQuery(store, features), nominalIndex, partialTables, null, null), 0);
+    }
+  }
+  
+  /**
+   * Mostly nominal features with a sparse continuous feature.
+   */
+  private static List<Feature> getFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextInt(8) != 0 ? 0 : random.nextDouble()));
+    features.add(new NominalFeature("a" + random.nextInt(5)));
+    features.add(new NominalFeature("b" + random.nextInt(3)));
+    features.add(new NominalFeature("c" + random.nextInt(20)));
+    features.add(new NominalFeature(random.nextBoolean() ? null : "d"));
+    return features;
+  }
+}
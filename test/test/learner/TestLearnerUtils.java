@@ -0,0 +1,48 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.utils.LearnerUtils;
+
+/**
+ * Test distribution utilities.
+ * 
+ * @author woodser
+ */
+public class TestLearnerUtils {
+  
+  @Test
+  public void testConfidence() {
+    Map<Object, Double> distribution = new HashMap<Object, Double>();
+    distribution.put("a", 1.0);
+    distribution.put("b", 6.0);
+    distribution.put("c", 3.0);
+    assertEquals(0.3, LearnerUtils.getConfidence(distribution), 1e-15);
+    assertEquals(0.3, LearnerUtils.getConfidence(new double[] { 0, 1, 6, 3 }, 1, 3), 1e-15);
+    
+    // a single outcome is certain and no scores are not
+    assertEquals(1, LearnerUtils.getConfidence(new double[] { 2 }, 0, 1), 0);
+    assertEquals(0, LearnerUtils.getConfidence(new double[] { 0, 0 }, 0, 2), 0);
+  }
+  
+  @Test
+  public void testDenseConfidenceMatchesMapConfidence() {
+    Random random = new Random(79);
+    for (int i = 0; i < 100; i++) {
+      int numOutcomes = 1 + random.nextInt(5);
+      double[] scores = new double[numOutcomes];
+      Map<Object, Double> distribution = new HashMap<Object, Double>();
+      for (int outcome = 0; outcome < numOutcomes; outcome++) {
+        scores[outcome] = random.nextInt(3) == 0 ? 0 : random.nextDouble();
+        distribution.put(outcome, scores[outcome]);
+      }
+      assertEquals(LearnerUtils.getConfidence(distribution), LearnerUtils.getConfidence(scores, 0, numOutcomes), 1e-15);
+    }
+  }
+}
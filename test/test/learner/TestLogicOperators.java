@@ -3,6 +3,7 @@ package test.learner;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.Test;
 
@@ -16,6 +17,13 @@ import learner.features.NominalFeature;
  */
 public class TestLogicOperators {
 
+  @Test
+  public void testIdenticalSizeDistributionsCountOnce() {
+    Learner learner = new Learner();
+    learner.learn(Arrays.asList(new NominalFeature[] {new NominalFeature("x"), new NominalFeature("y")}), Outcome.A);
+    assertEquals(Collections.singletonMap(Outcome.A, 1.0), learner.getDistribution(Arrays.asList(new NominalFeature[] {new NominalFeature("x"), new NominalFeature("y")})));
+  }
+  
   @Test
   public void testSimpleXOR() {
     Learner learner = new Learner();
@@ -0,0 +1,128 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.FeatureType;
+import ml.Instance;
+import ml.MlException;
+import ml.ModelLearner;
+import ml.Schema;
+
+/**
+ * Test the model backed by a learner.
+ * 
+ * @author woodser
+ */
+public class TestModelLearner {
+
+  @Test
+  public void testParallelClassification() {
+    Random random = new Random(3);
+    ModelLearner model = new ModelLearner();
+    for (int i = 0; i < 500; i++) model.addTrainingInstance(getInstance(random, true));
+    model.train();
+    List<Instance> serial = new ArrayList<Instance>();
+    List<Instance> parallel = new ArrayList<Instance>();
+    for (int i = 0; i < 200; i++) {
+      Instance instance = getInstance(random, false);
+      serial.add(new Instance(instance.getFeatures()));
+      parallel.add(new Instance(instance.getFeatures()));
+    }
+    model.classify(serial);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      model.setExecutor(pool);
+      model.classify(parallel);
+    } finally {
+      pool.shutdown();
+    }
+    for (int i = 0; i < serial.size(); i++) {
+      assertEquals(serial.get(i).getClassification(), parallel.get(i).getClassification());
+      assertEquals(serial.get(i).getProbability(), parallel.get(i).getProbability(), 1e-12);
+      for (Object outcome : serial.get(i).getDistribution().keySet()) {
+        assertEquals(serial.get(i).getDistribution().get(outcome), parallel.get(i).getDistribution().get(outcome), 1e-12);
+      }
+    }
+  }
+  
+  @Test
+  public void testPlannedClassificationMatchesLearner() {
+    Random random = new Random(5);
+    ModelLearner model = new ModelLearner();
+    Learner learner = new Learner();
+    for (int i = 0; i < 300; i++) {
+      Instance instance = getInstance(random, true);
+      model.addTrainingInstance(instance);
+      learner.learn(ModelLearner.getExperience(instance));
+    }
+    for (int i = 0; i < 50; i++) {
+      Instance instance = getInstance(random, false);
+      Map<Object, Double> expected = learner.getDistribution(ModelLearner.getExperience(instance).getFeatures());
+      assertEquals(expected, model.classify(instance).getDistribution());
+    }
+  }
+  
+  @Test
+  public void testSchema() throws IOException {
+    Random random = new Random(9);
+    ModelLearner model = new ModelLearner();
+    assertNull(model.getSchema());
+    for (int i = 0; i < 100; i++) model.addTrainingInstance(getInstance(random, true));
+    Schema schema = model.getSchema();
+    assertEquals(Arrays.asList("color", "x", "y"), Arrays.asList(schema.getNames()));
+    assertEquals(FeatureType.NOMINAL, schema.getType(0));
+    assertEquals(FeatureType.CONTINUOUS, schema.getType(schema.getColumn("y")));
+    
+    // the schema is exported with the model
+    ModelLearner loaded = new ModelLearner();
+    loaded.load(model.export());
+    assertEquals(Arrays.asList(schema.getNames()), Arrays.asList(loaded.getSchema().getNames()));
+    Instance query = getInstance(random, false);
+    assertEquals(model.classify(new Instance(query.getFeatures())).getDistribution(), loaded.classify(new Instance(query.getFeatures())).getDistribution());
+  }
+  
+  @Test(expected = MlException.class)
+  public void testTrainingTypeMismatch() {
+    Random random = new Random(1);
+    ModelLearner model = new ModelLearner();
+    model.addTrainingInstance(getInstance(random, true));
+    Instance instance = getInstance(random, true);
+    instance.getFeatures().put("x", "0.5");
+    model.addTrainingInstance(instance);
+  }
+  
+  @Test(expected = MlException.class)
+  public void testClassificationMissingFeature() {
+    Random random = new Random(1);
+    ModelLearner model = new ModelLearner();
+    for (int i = 0; i < 10; i++) model.addTrainingInstance(getInstance(random, true));
+    Instance instance = getInstance(random, false);
+    instance.getFeatures().put("z", instance.getFeatures().remove("y"));
+    model.classify(instance);
+  }
+  
+  private static Instance getInstance(Random random, boolean classified) {
+    Map<String, Object> features = new HashMap<String, Object>();
+    double x = random.nextDouble();
+    String color = random.nextBoolean() ? "red" : "blue";
+    features.put("x", x);
+    features.put("y", random.nextDouble());
+    features.put("color", color);
+    Instance instance = new Instance(features);
+    if (classified) instance.setClassification(x > 0.5 && color.equals("red") ? "yes" : "no");
+    return instance;
+  }
+}
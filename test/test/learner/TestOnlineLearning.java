@@ -0,0 +1,61 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.Experience;
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+
+/**
+ * Test that learning after optimizing keeps distributions exact.
+ * 
+ * @author woodser
+ */
+public class TestOnlineLearning {
+  
+  @Test
+  public void testOnlineMatchesUnoptimized() {
+    Random random = new Random(43);
+    Learner online = new Learner();
+    Learner unoptimized = new Learner();
+    for (int i = 0; i < 500; i++) {
+      Experience experience = getExperience(random, i);
+      online.learn(experience);
+      unoptimized.learn(experience);
+    }
+    online.optimize();
+    
+    // learn new nominal values and outcomes one at a time and in batches
+    for (int batch = 0; batch < 10; batch++) {
+      List<Experience> experiences = new ArrayList<Experience>();
+      for (int i = 0; i < 300; i++) experiences.add(getExperience(random, 500 + batch * 300 + i));
+      if (batch % 2 == 0) online.learnAll(experiences);
+      else for (Experience experience : experiences) online.learn(experience);
+      unoptimized.learnAll(experiences);
+      for (int i = 0; i < 10; i++) {
+        List<Feature> query = getExperience(random, 500 + batch * 300).getFeatures();
+        assertEquals(unoptimized.getDistribution(query), online.getDistribution(query));
+      }
+    }
+  }
+  
+  /**
+   * Experiences whose nominal values and outcomes grow in number as more are learned.
+   */
+  private static Experience getExperience(Random random, int i) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextInt(4) != 0 ? 0 : random.nextDouble()));
+    features.add(new NominalFeature("a" + random.nextInt(1 + i / 8)));
+    features.add(new NominalFeature("b" + random.nextInt(3)));
+    features.add(new NominalFeature("c" + random.nextInt(1 + i / 100)));
+    return new Experience(features, "outcome" + random.nextInt(2 + i / 1000));
+  }
+}
@@ -0,0 +1,81 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+
+/**
+ * Test that indexing experiences does not change distributions.
+ * 
+ * @author woodser
+ */
+public class TestPruningIndex {
+  
+  @Test
+  public void testIndexedDistributionsMatchUnindexed() {
+    Random random = new Random(17);
+    Learner unindexed = new Learner();
+    Learner indexed = new Learner();
+    for (int i = 0; i < 3000; i++) {
+      List<Feature> features = getFeatures(random);
+      Object outcome = random.nextInt(3);
+      unindexed.learn(features, outcome);
+      indexed.learn(features, outcome);
+    }
+    indexed.optimize();
+    
+    // experiences learned after indexing are still scored
+    for (int i = 0; i < 100; i++) {
+      List<Feature> features = getFeatures(random);
+      unindexed.learn(features, "late");
+      indexed.learn(features, "late");
+    }
+    for (int i = 0; i < 50; i++) {
+      List<Feature> query = getFeatures(random);
+      assertEquals(unindexed.getDistribution(query), indexed.getDistribution(query));
+    }
+  }
+  
+  @Test
+  public void testIndexedMinSimilarityMatchesUnindexed() {
+    Random random = new Random(19);
+    Learner unindexed = new Learner();
+    Learner indexed = new Learner();
+    for (int i = 0; i < 2000; i++) {
+      List<Feature> features = getFeatures(random);
+      Object outcome = random.nextInt(2);
+      unindexed.learn(features, outcome);
+      indexed.learn(features, outcome);
+    }
+    indexed.optimize();
+    for (double minSimilarity : new double[] {0.01, 0.5, 1}) {
+      unindexed.setMinSimilarity(minSimilarity);
+      indexed.setMinSimilarity(minSimilarity);
+      for (int i = 0; i < 20; i++) {
+        List<Feature> query = getFeatures(random);
+        assertEquals(unindexed.getDistribution(query), indexed.getDistribution(query));
+      }
+    }
+  }
+  
+  /**
+   * Features which are mostly 0 or NaN and rare nominal values, so most experiences are dissimilar to a query.
+   */
+  private static List<Feature> getFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextInt(10) != 0 ? 0 : Math.exp(random.nextDouble() * 10)));
+    features.add(new ContinuousFeature(random.nextInt(10) != 0 ? Double.NaN : -Math.exp(random.nextDouble() * 10)));
+    features.add(new NominalFeature("v" + random.nextInt(40)));
+    features.add(new ContinuousFeature(random.nextInt(10) != 0 ? 0 : random.nextGaussian()));
+    return features;
+  }
+}
@@ -0,0 +1,165 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+import learner.store.ExperienceStore;
+import learner.store.StoreFormat;
+
+/**
+ * Test the binary learner format.
+ * 
+ * @author woodser
+ */
+public class TestStoreFormat {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(5);
+    ExperienceStore store = new ExperienceStore();
+    Object[] outcomes = new Object[] {"a", 7, 7L, 1.5, true, Outcome.B, null};
+    for (int i = 0; i < 1000; i++) {
+      String nominal = random.nextInt(50) == 0 ? null : "value" + random.nextInt(300);
+      store.add(Arrays.asList(new Feature[] {new ContinuousFeature(random.nextGaussian()), new NominalFeature(nominal), new NominalFeature("x" + i % 3)}), outcomes[i % outcomes.length]);
+    }
+    store.setNames(new String[] {"size", "name", "group"});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StoreFormat.write(store, out);
+    ExperienceStore copy = StoreFormat.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(store.size(), copy.size());
+    assertEquals(store.getFeatureSize(), copy.getFeatureSize());
+    assertEquals(Arrays.asList(store.getNames()), Arrays.asList(copy.getNames()));
+    for (int row = 0; row < store.size(); row++) {
+      List<Feature> expected = store.getExperience(row).getFeatures();
+      List<Feature> actual = copy.getExperience(row).getFeatures();
+      assertEquals(((ContinuousFeature) expected.get(0)).getVal(), ((ContinuousFeature) actual.get(0)).getVal(), 0);
+      assertEquals(((NominalFeature) expected.get(1)).getVal(), ((NominalFeature) actual.get(1)).getVal());
+      assertEquals(((NominalFeature) expected.get(2)).getVal(), ((NominalFeature) actual.get(2)).getVal());
+      assertEquals(store.getExperience(row).getOutcome(), copy.getExperience(row).getOutcome());
+    }
+  }
+  
+  @Test
+  public void testLearnerRoundTrip() throws IOException {
+    Random random = new Random(9);
+    Learner learner = new Learner();
+    for (int i = 0; i < 200; i++) learner.learn(getFeatures(random), random.nextInt(4));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    learner.write(out);
+    Learner copy = Learner.read(new ByteArrayInputStream(out.toByteArray()));
+    for (int i = 0; i < 20; i++) {
+      List<Feature> query = getFeatures(random);
+      Map<Object, Double> expected = learner.getDistribution(query);
+      Map<Object, Double> actual = copy.getDistribution(query);
+      assertEquals(expected.keySet(), actual.keySet());
+      for (Object outcome : expected.keySet()) assertEquals(expected.get(outcome), actual.get(outcome), 1e-12);
+    }
+  }
+  
+  @Test
+  public void testMappedLearner() throws IOException {
+    Random random = new Random(13);
+    Learner learner = new Learner();
+    for (int i = 0; i < 300; i++) learner.learn(getFeatures(random), "outcome" + random.nextInt(3));
+    File file = File.createTempFile("learner", ".bin");
+    file.deleteOnExit();
+    try (OutputStream out = new FileOutputStream(file)) {
+      learner.write(out);
+    }
+    Learner mapped = Learner.map(file);
+    for (int i = 0; i < 20; i++) {
+      List<Feature> query = getFeatures(random);
+      assertEquals(learner.getDistribution(query), mapped.getDistribution(query));
+    }
+    
+    // learning copies the mapped experiences to the heap
+    List<Feature> features = getFeatures(random);
+    learner.learn(features, "outcome3");
+    mapped.learn(features, "outcome3");
+    List<Feature> query = getFeatures(random);
+    assertEquals(learner.getDistribution(query), mapped.getDistribution(query));
+  }
+  
+  @Test
+  public void testWeightedLearner() throws IOException {
+    Random random = new Random(17);
+    Learner learner = new Learner();
+    learner.setDeduplicate(true);
+    for (int i = 0; i < 2000; i++) {
+      List<Feature> features = new ArrayList<Feature>();
+      features.add(new ContinuousFeature(random.nextInt(4)));
+      features.add(new NominalFeature("v" + random.nextInt(3)));
+      learner.learn(features, random.nextInt(2));
+    }
+    learner.optimize();
+    assertEquals(true, learner.getStore().isWeighted());
+    File file = File.createTempFile("learner", ".bin");
+    file.deleteOnExit();
+    try (OutputStream out = new FileOutputStream(file)) {
+      learner.write(out);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    learner.write(out);
+    Learner copy = Learner.read(new ByteArrayInputStream(out.toByteArray()));
+    Learner mapped = Learner.map(file);
+    for (int row = 0; row < learner.getStore().size(); row++) {
+      assertEquals(learner.getStore().getWeights().get(row), copy.getStore().getWeights().get(row));
+      assertEquals(learner.getStore().getWeights().get(row), mapped.getStore().getWeights().get(row));
+    }
+    List<Feature> query = Arrays.asList(new Feature[] {new ContinuousFeature(2), new NominalFeature("v1")});
+    assertEquals(learner.getDistribution(query), copy.getDistribution(query));
+    assertEquals(learner.getDistribution(query), mapped.getDistribution(query));
+  }
+  
+  @Test
+  public void testReadStopsAtEndOfStore() throws IOException {
+    Random random = new Random(13);
+    ExperienceStore first = new ExperienceStore();
+    ExperienceStore second = new ExperienceStore();
+    for (int i = 0; i < 5000; i++) first.add(getFeatures(random), random.nextInt(3));
+    for (int i = 0; i < 10; i++) second.add(getFeatures(random), random.nextInt(3));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StoreFormat.write(first, out);
+    StoreFormat.write(second, out);
+    out.write(42);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertEquals(first.size(), StoreFormat.read(in).size());
+    assertEquals(second.size(), StoreFormat.read(in).size());
+    assertEquals(42, in.read());
+    assertEquals(-1, in.read());
+  }
+  
+  @Test(expected = IOException.class)
+  public void testNotAStore() throws IOException {
+    StoreFormat.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+  }
+  
+  private static List<Feature> getFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    features.add(new ContinuousFeature(random.nextDouble()));
+    features.add(new NominalFeature("v" + random.nextInt(3)));
+    features.add(new ContinuousFeature(random.nextDouble()));
+    return features;
+  }
+  
+  private enum Outcome {
+    A, B
+  }
+}
@@ -0,0 +1,352 @@
+package test.learner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import learner.Learner;
+import learner.features.ContinuousFeature;
+import learner.features.Feature;
+import learner.features.NominalFeature;
+import learner.scoring.Combinations;
+import learner.scoring.ContingencyTables;
+import learner.scoring.EncodedQuery;
+import learner.scoring.InvertedIndex;
+import learner.scoring.PruningIndex;
+import learner.scoring.SubsetScorer;
+import learner.store.ExperienceStore;
+
+/**
+ * Test that subset scoring matches multiplying out each combination.
+ * 
+ * @author woodser
+ */
+public class TestSubsetScorer {
+  
+  private static final int FEATURE_SIZE = 6;
+  private static final int NUM_EXPERIENCES = 300;
+
+  @Test
+  public void testScoresMatchCombinationProducts() {
+    Random random = new Random(7);
+    List<List<Feature>> experiences = new ArrayList<List<Feature>>();
+    List<Integer> outcomes = new ArrayList<Integer>();
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < NUM_EXPERIENCES; i++) {
+      List<Feature> features = getFeatures(random);
+      int outcome = random.nextInt(3);
+      experiences.add(features);
+      outcomes.add(outcome);
+      store.add(features, outcome);
+    }
+    
+    for (int q = 0; q < 10; q++) {
+      List<Feature> query = getFeatures(random);
+      double[] scores = SubsetScorer.score(store, new EncodedQuery(store, query));
+      int numOutcomes = store.getOutcomeDictionary().size();
+      for (int mask = 1; mask < 1 << FEATURE_SIZE; mask++) {
+        double[] expected = new double[numOutcomes];
+        for (int row = 0; row < NUM_EXPERIENCES; row++) {
+          double similarity = 1;
+          for (int i = 0; i < FEATURE_SIZE; i++) {
+            if ((mask & 1 << i) != 0) similarity *= query.get(i).compare(experiences.get(row).get(i));
+          }
+          if (Double.isNaN(similarity)) similarity = 0;
+          expected[store.getOutcomeDictionary().lookup(outcomes.get(row))] += similarity;
+        }
+        for (int outcome = 0; outcome < numOutcomes; outcome++) {
+          assertEquals(expected[outcome], scores[mask * numOutcomes + outcome], 0);
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testParallelScoresMatchSerialScores() {
+    Random random = new Random(11);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 20000; i++) store.add(getFeatures(random), random.nextInt(3));
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int q = 0; q < 5; q++) {
+        EncodedQuery query = new EncodedQuery(store, getFeatures(random));
+        double[] serial = SubsetScorer.score(store, query);
+        double[] parallel = SubsetScorer.score(store, query, pool);
+        assertEquals(serial.length, parallel.length);
+        for (int i = 0; i < serial.length; i++) assertEquals(serial[i], parallel[i], 1e-9 * Math.abs(serial[i]));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testLogSpaceScoresMatchScores() {
+    Random random = new Random(13);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 5000; i++) store.add(getFeatures(random), random.nextInt(3));
+    InvertedIndex nominalIndex = new InvertedIndex();
+    nominalIndex.update(store);
+    ContingencyTables tables = new ContingencyTables(store, 1 << 20);
+    PruningIndex pruningIndex = new PruningIndex(store);
+    Combinations combinations = Combinations.upToSize(FEATURE_SIZE, 2);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int q = 0; q < 5; q++) {
+        List<Feature> features = getFeatures(random);
+        EncodedQuery query = new EncodedQuery(store, features);
+        EncodedQuery logQuery = new EncodedQuery(store, features);
+        logQuery.setLogSpace(true);
+        assertLogs(SubsetScorer.score(store, query).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery)));
+        assertLogs(SubsetScorer.score(store, query, nominalIndex, tables, pruningIndex, null).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, nominalIndex, tables, pruningIndex, null)));
+        assertLogs(SubsetScorer.score(store, query, nominalIndex, null, null, pool), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, nominalIndex, null, null, pool)));
+        assertLogs(SubsetScorer.score(store, query, combinations, null).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, combinations, null)));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testLogSpaceDoesNotUnderflow() {
+    
+    // each feature is similar by 1e-20 so the product of all of them is below the smallest double
+    int featureSize = 20;
+    ExperienceStore store = new ExperienceStore();
+    List<Feature> query = new ArrayList<Feature>();
+    for (int i = 0; i < featureSize; i++) query.add(new ContinuousFeature(1));
+    for (int row = 0; row < 10; row++) {
+      List<Feature> features = new ArrayList<Feature>();
+      for (int i = 0; i < featureSize; i++) features.add(new ContinuousFeature(1e-10));
+      store.add(features, "outcome");
+    }
+    int all = (1 << featureSize) - 1;
+    assertEquals(0, SubsetScorer.score(store, new EncodedQuery(store, query))[all], 0);
+    EncodedQuery logQuery = new EncodedQuery(store, query);
+    logQuery.setLogSpace(true);
+    double expected = Math.log(10) + featureSize * Math.log(ContinuousFeature.compare(1, 1e-10));
+    assertEquals(expected, SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery))[all], 1e-12 * Math.abs(expected));
+  }
+  
+  @Test
+  public void testLogSpaceDistributionsMatchDistributions() {
+    Random random = new Random(17);
+    Learner learner = new Learner();
+    for (int i = 0; i < 2000; i++) learner.learn(getFeatures(random), random.nextInt(3));
+    learner.optimize();
+    for (int q = 0; q < 10; q++) {
+      List<Feature> query = getFeatures(random);
+      learner.setLogSpace(false);
+      Map<Object, Double> distribution = learner.getDistribution(query);
+      learner.setLogSpace(true);
+      Map<Object, Double> logDistribution = learner.getDistribution(query);
+      assertEquals(distribution.keySet(), logDistribution.keySet());
+      for (Object outcome : distribution.keySet()) assertEquals(distribution.get(outcome), logDistribution.get(outcome), 1e-9 * distribution.get(outcome));
+    }
+  }
+  
+  @Test
+  public void testLogSpaceDistributionsMatchDistributionsWithTies() {
+    
+    // continuous values repeating nominal values are similar in the same experiences, so many combinations tie
+    Random random = new Random(23);
+    Learner learner = new Learner();
+    for (int i = 0; i < 3000; i++) learner.learn(getCorrelatedFeatures(random), random.nextInt(3));
+    learner.optimize();
+    for (int q = 0; q < 20; q++) {
+      List<Feature> query = getCorrelatedFeatures(random);
+      learner.setLogSpace(false);
+      Map<Object, Double> distribution = learner.getDistribution(query);
+      learner.setLogSpace(true);
+      assertEquals(distribution, learner.getDistribution(query));
+    }
+    
+    // log scores are the logs of plain scores, so equal plain scores have equal log scores
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 3000; i++) store.add(getCorrelatedFeatures(random), random.nextInt(3));
+    InvertedIndex nominalIndex = new InvertedIndex();
+    nominalIndex.update(store);
+    ContingencyTables tables = new ContingencyTables(store, 1 << 20);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int q = 0; q < 5; q++) {
+        List<Feature> features = getCorrelatedFeatures(random);
+        EncodedQuery query = new EncodedQuery(store, features);
+        EncodedQuery logQuery = new EncodedQuery(store, features);
+        logQuery.setLogSpace(true);
+        assertExactLogs(SubsetScorer.score(store, query).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery)));
+        assertExactLogs(SubsetScorer.score(store, query, nominalIndex, tables, new PruningIndex(store), null).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, nominalIndex, tables, new PruningIndex(store), null)));
+        assertExactLogs(SubsetScorer.score(store, query, nominalIndex, null, null, pool), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, nominalIndex, null, null, pool)));
+        assertExactLogs(SubsetScorer.score(store, query, Combinations.upToSize(FEATURE_SIZE, 3), null).clone(), SubsetScorer.toLogs(logQuery, SubsetScorer.score(store, logQuery, Combinations.upToSize(FEATURE_SIZE, 3), null)));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testWeightedScoresMatchScores() {
+    
+    // experiences drawn from few values repeat often
+    Random random = new Random(19);
+    ExperienceStore store = new ExperienceStore();
+    for (int i = 0; i < 5000; i++) store.add(getRepeatedFeatures(random), random.nextInt(3));
+    ExperienceStore weighted = store.deduplicate(0);
+    assertEquals(true, weighted.size() < store.size() / 2);
+    InvertedIndex nominalIndex = new InvertedIndex();
+    nominalIndex.update(store);
+    InvertedIndex weightedIndex = new InvertedIndex();
+    weightedIndex.update(weighted);
+    ContingencyTables tables = new ContingencyTables(store, 1 << 20);
+    ContingencyTables weightedTables = new ContingencyTables(weighted, 1 << 20);
+    Combinations combinations = Combinations.upToSize(FEATURE_SIZE, 2);
+    for (int q = 0; q < 5; q++) {
+      List<Feature> features = getRepeatedFeatures(random);
+      for (boolean logSpace : new boolean[] {false, true}) {
+        EncodedQuery query = new EncodedQuery(store, features);
+        EncodedQuery weightedQuery = new EncodedQuery(weighted, features);
+        query.setLogSpace(logSpace);
+        weightedQuery.setLogSpace(logSpace);
+        assertClose(getScores(query, SubsetScorer.score(store, query)), getScores(weightedQuery, SubsetScorer.score(weighted, weightedQuery)));
+        assertClose(getScores(query, SubsetScorer.score(store, query, nominalIndex, tables, new PruningIndex(store), null)), getScores(weightedQuery, SubsetScorer.score(weighted, weightedQuery, weightedIndex, weightedTables, new PruningIndex(weighted), null)));
+        assertClose(getScores(query, SubsetScorer.score(store, query, combinations, null)), getScores(weightedQuery, SubsetScorer.score(weighted, weightedQuery, combinations, null)));
+      }
+    }
+    
+    // deduplicating learners leaves their distributions unchanged
+    Learner learner = new Learner();
+    Learner deduplicated = new Learner();
+    deduplicated.setDeduplicate(true);
+    for (int i = 0; i < 2000; i++) {
+      List<Feature> features = getRepeatedFeatures(random);
+      int outcome = random.nextInt(3);
+      learner.learn(features, outcome);
+      deduplicated.learn(features, outcome);
+    }
+    learner.optimize();
+    deduplicated.optimize();
+    assertEquals(true, deduplicated.getStore().isWeighted());
+    for (int q = 0; q < 10; q++) {
+      List<Feature> query = getRepeatedFeatures(random);
+      Map<Object, Double> distribution = learner.getDistribution(query);
+      Map<Object, Double> weightedDistribution = deduplicated.getDistribution(query);
+      assertEquals(distribution.keySet(), weightedDistribution.keySet());
+      for (Object outcome : distribution.keySet()) assertEquals(distribution.get(outcome), weightedDistribution.get(outcome), 1e-12 * distribution.get(outcome));
+    }
+  }
+  
+  /**
+   * Asserts that scores are equal up to rounding.
+   */
+  private static void assertClose(double[] expected, double[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      if (Double.isInfinite(expected[i])) assertEquals(expected[i], actual[i], 0);
+      else assertEquals(expected[i], actual[i], 1e-12 * Math.max(1, Math.abs(expected[i])));
+    }
+  }
+  
+  /**
+   * Copies a query's scores, taking their natural logs if scored in log space.
+   */
+  private static double[] getScores(EncodedQuery query, double[] scores) {
+    return query.isLogSpace() ? SubsetScorer.toLogs(query, scores) : scores.clone();
+  }
+  
+  /**
+   * Asserts that scores accumulated in log space are the logs of plain scores.
+   */
+  private static void assertLogs(double[] scores, double[] logScores) {
+    assertEquals(scores.length, logScores.length);
+    for (int i = 0; i < scores.length; i++) {
+      if (scores[i] == 0) assertEquals(Double.NEGATIVE_INFINITY, logScores[i], 0);
+      else assertEquals(scores[i], Math.exp(logScores[i]), 1e-12 * scores[i]);
+    }
+  }
+  
+  /**
+   * Asserts that scores accumulated in log space are exactly the logs of plain scores.
+   */
+  private static void assertExactLogs(double[] scores, double[] logScores) {
+    assertEquals(scores.length, logScores.length);
+    for (int i = 0; i < scores.length; i++) assertEquals(Math.log(scores[i]), logScores[i], 0);
+  }
+  
+  @Test
+  public void testDeduplicatedDistributionsMatchDistributions() {
+    Random random = new Random(23);
+    List<List<Feature>> experiences = new ArrayList<List<Feature>>();
+    List<Integer> outcomes = new ArrayList<Integer>();
+    for (int i = 0; i < 3000; i++) {
+      experiences.add(i % 10 == 0 ? getFeatures(random) : getRepeatedFeatures(random));
+      outcomes.add(random.nextInt(2));
+    }
+    
+    // distributions of every outcome agree within the documented rounding with and without deduplicating
+    double tolerance = 4 * experiences.size() * Math.ulp(1.0);
+    for (boolean logSpace : new boolean[] {false, true}) {
+      for (int maxCombinationSize : new int[] {0, 2}) {
+        Learner learner = new Learner();
+        Learner deduplicated = new Learner();
+        deduplicated.setDeduplicate(true);
+        for (Learner aLearner : new Learner[] {learner, deduplicated}) {
+          aLearner.setLogSpace(logSpace);
+          aLearner.setMaxCombinationSize(maxCombinationSize);
+          for (int i = 0; i < experiences.size(); i++) aLearner.learn(experiences.get(i), outcomes.get(i));
+          aLearner.optimize();
+        }
+        assertEquals(true, deduplicated.getStore().size() < learner.getStore().size() * 3 / 4);
+        for (int q = 0; q < 20; q++) {
+          List<Feature> query = q % 4 == 0 ? getFeatures(random) : getRepeatedFeatures(random);
+          Map<Object, Double> distribution = learner.getDistribution(query);
+          Map<Object, Double> deduplicatedDistribution = deduplicated.getDistribution(query);
+          assertEquals(distribution.keySet(), deduplicatedDistribution.keySet());
+          for (Object outcome : distribution.keySet()) assertEquals(distribution.get(outcome), deduplicatedDistribution.get(outcome), tolerance * distribution.get(outcome));
+        }
+      }
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueriesRequireAtMost63Features() {
+    List<Feature> features = new ArrayList<Feature>();
+    for (int i = 0; i < 64; i++) features.add(new NominalFeature("v" + i));
+    ExperienceStore store = new ExperienceStore();
+    store.add(features, 0);
+    new EncodedQuery(store, features);
+  }
+  
+  private static List<Feature> getCorrelatedFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    for (int i = 0; i < FEATURE_SIZE; i += 2) {
+      int value = random.nextInt(3);
+      features.add(new ContinuousFeature(1 + 10 * value));
+      features.add(new NominalFeature("v" + (random.nextInt(4) == 0 ? random.nextInt(3) : value)));
+    }
+    return features;
+  }
+  
+  private static List<Feature> getRepeatedFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    for (int i = 0; i < FEATURE_SIZE; i++) {
+      if (i % 2 == 0) features.add(new ContinuousFeature(1 + random.nextInt(3)));
+      else features.add(new NominalFeature("v" + random.nextInt(3)));
+    }
+    return features;
+  }
+  
+  private static List<Feature> getFeatures(Random random) {
+    List<Feature> features = new ArrayList<Feature>();
+    for (int i = 0; i < FEATURE_SIZE; i++) {
+      if (i % 2 == 0) features.add(new ContinuousFeature(random.nextInt(4) == 0 ? 0 : random.nextGaussian()));
+      else features.add(new NominalFeature("v" + random.nextInt(3)));
+    }
+    return features;
+  }
+}